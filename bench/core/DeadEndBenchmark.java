@@ -0,0 +1,116 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.Random;
+
+/**
+ * Compares DeadEnds.prune with the full-grid sweep it replaced, which repeats a sweep
+ * over every cell until a sweep changes nothing. Both run on copies of the same grids
+ * and the results are checked to be identical.
+ *
+ * The grids are random floor/wall noise, where dead ends are short, and a serpentine
+ * corridor, where walling one dead end exposes the next and the sweep needs one pass
+ * per corridor tile.
+ *
+ * Usage: java core.DeadEndBenchmark
+ */
+public class DeadEndBenchmark {
+    public static void main(String[] args) {
+        Random random = new Random(7);
+        for (int size : new int[] {100, 400, 1000}) {
+            TileGrid noise = new TileGrid(size, size, Tileset.ELDENWALL);
+            int floor = noise.code(Tileset.ASHEN_SKY);
+            for (int i = 0; i < size * size; i++) {
+                if (random.nextDouble() < 0.6) {
+                    noise.setCode(i, floor);
+                }
+            }
+            compare("noise " + size + "x" + size, noise);
+        }
+        for (int size : new int[] {60, 120, 240}) {
+            compare("serpentine " + size + "x" + size, serpentine(size));
+        }
+        TileGrid big = serpentine(1000);
+        long start = System.nanoTime();
+        prune(big);
+        System.out.printf("%-22s worklist %9.2f ms  sweep skipped, it needs over 100000 passes%n",
+                "serpentine 1000x1000", (System.nanoTime() - start) / 1e6);
+    }
+
+    private static void compare(String name, TileGrid grid) {
+        TileGrid a = copy(grid);
+        TileGrid b = copy(grid);
+        long start = System.nanoTime();
+        prune(a);
+        long worklist = System.nanoTime() - start;
+        start = System.nanoTime();
+        int passes = sweep(b);
+        long sweep = System.nanoTime() - start;
+        boolean same = true;
+        for (int i = 0; i < a.width() * a.height(); i++) {
+            same &= a.tile(a.codeAt(i)) == b.tile(b.codeAt(i));
+        }
+        System.out.printf("%-22s worklist %9.2f ms  sweep %9.2f ms (%d passes)  %s%n",
+                name, worklist / 1e6, sweep / 1e6, passes, same ? "identical" : "DIFFERENT");
+    }
+
+    private static void prune(TileGrid grid) {
+        DeadEnds.prune(grid, grid.code(Tileset.ASHEN_SKY), grid.code(Tileset.ELDENWALL));
+    }
+
+    /**
+     * Carves a corridor that runs up column 1, down column 3, up column 5 and so on.
+     */
+    private static TileGrid serpentine(int size) {
+        TileGrid grid = new TileGrid(size, size, Tileset.ELDENWALL);
+        for (int x = 1; x < size - 1; x += 2) {
+            for (int y = 1; y < size - 1; y++) {
+                grid.set(x, y, Tileset.ASHEN_SKY);
+            }
+            if (x + 2 < size - 1) {
+                grid.set(x + 1, (x / 2) % 2 == 0 ? size - 2 : 1, Tileset.ASHEN_SKY);
+            }
+        }
+        return grid;
+    }
+
+    private static TileGrid copy(TileGrid grid) {
+        TileGrid copy = new TileGrid(grid.width(), grid.height(), Tileset.ELDENWALL);
+        for (int x = 0; x < grid.width(); x++) {
+            for (int y = 0; y < grid.height(); y++) {
+                copy.set(x, y, grid.get(x, y));
+            }
+        }
+        return copy;
+    }
+
+    /** The sweep World.removeDeadEnds used before DeadEnds. */
+    private static int sweep(TileGrid grid) {
+        int floor = grid.code(Tileset.ASHEN_SKY);
+        int wall = grid.code(Tileset.ELDENWALL);
+        int passes = 0;
+        boolean changesMade;
+        do {
+            changesMade = false;
+            passes++;
+            for (int x = 0; x < grid.width(); x++) {
+                for (int y = 0; y < grid.height(); y++) {
+                    if (grid.codeAt(x, y) == floor) {
+                        int walls = 0;
+                        if (grid.is(x + 1, y, wall)) walls++;
+                        if (grid.is(x - 1, y, wall)) walls++;
+                        if (grid.is(x, y + 1, wall)) walls++;
+                        if (grid.is(x, y - 1, wall)) walls++;
+                        if (walls == 3) {
+                            grid.setCode(grid.index(x, y), wall);
+                            changesMade = true;
+                        }
+                    }
+                }
+            }
+        } while (changesMade);
+        return passes;
+    }
+}
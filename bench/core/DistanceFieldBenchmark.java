@@ -0,0 +1,90 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.Random;
+
+/**
+ * Compares repairing the player's distance field after a one tile move with rebuilding
+ * it from scratch. The player takes a random walk through a generated world, and every
+ * repair is checked against a fresh rebuild.
+ *
+ * Usage: java core.DistanceFieldBenchmark [width height [moves]]
+ */
+public class DistanceFieldBenchmark {
+    private static final long SEED = 42;
+
+    public static void main(String[] args) {
+        int[][] sizes = {{60, 43}, {200, 153}, {500, 403}};
+        int moves = 2000;
+        if (args.length >= 2) {
+            sizes = new int[][] {{Integer.parseInt(args[0]), Integer.parseInt(args[1])}};
+        }
+        if (args.length >= 3) {
+            moves = Integer.parseInt(args[2]);
+        }
+        for (int[] size : sizes) {
+            run(size[0], size[1], moves);
+        }
+    }
+
+    private static void run(int width, int height, int moves) {
+        World world = new World(SEED, width, height);
+        TileGrid tiles = world.grid();
+        DistanceField repaired = new DistanceField(tiles);
+        DistanceField rebuilt = new DistanceField(tiles);
+        int x = world.getPlayer().x();
+        int y = world.getPlayer().y();
+        repaired.rebuild(x, y);
+        rebuilt.rebuild(x, y);
+        int reachable = rebuilt.lastUpdated();
+
+        Random random = new Random(SEED);
+        int[][] steps = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+        long repairNanos = 0;
+        long rebuildNanos = 0;
+        long updatedCells = 0;
+        int mismatches = 0;
+        for (int i = 0; i < moves; i++) {
+            int[] step = steps[random.nextInt(4)];
+            int nx = x + step[0];
+            int ny = y + step[1];
+            if (!tiles.inBounds(nx, ny) || tiles.get(nx, ny) == Tileset.ELDENWALL) {
+                i--;
+                continue;
+            }
+            x = nx;
+            y = ny;
+
+            long start = System.nanoTime();
+            repaired.moveSource(x, y);
+            repairNanos += System.nanoTime() - start;
+            updatedCells += repaired.lastUpdated();
+
+            start = System.nanoTime();
+            rebuilt.rebuild(x, y);
+            rebuildNanos += System.nanoTime() - start;
+
+            mismatches += compare(repaired, rebuilt, tiles.width(), tiles.height());
+        }
+        System.out.printf("%dx%d  reachable=%d  moves=%d%n", width, height, reachable, moves);
+        System.out.printf("  repair : %8.1f cells/move %10.0f ns/move%n",
+                (double) updatedCells / moves, (double) repairNanos / moves);
+        System.out.printf("  rebuild: %8d cells/move %10.0f ns/move%n",
+                reachable, (double) rebuildNanos / moves);
+        System.out.printf("  mismatched cells: %d%n", mismatches);
+    }
+
+    private static int compare(DistanceField a, DistanceField b, int width, int height) {
+        int mismatches = 0;
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (a.distance(x, y) != b.distance(x, y)) {
+                    mismatches++;
+                }
+            }
+        }
+        return mismatches;
+    }
+}
@@ -0,0 +1,274 @@
+package core;
+
+import tileengine.OccupancyGrid;
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Cost of moving many enemies at once: EnemyStore, which keeps them in parallel int
+ * arrays, against a list of one object per enemy laid out as Enemy used to be, each with
+ * its own Position, path, Random and grid reference. Both move the same enemies, spread
+ * over the floor of a generated world, for TICKS ticks towards the player, and both
+ * stand them in an OccupancyGrid. The objects move one after another, each seeing the
+ * moves before it; the store decides every move first and then resolves them, on one
+ * thread and with the decide phase on the common ForkJoinPool. Before timing, the
+ * store must leave every enemy on the same cell either way.
+ *
+ * Then it times QUERIES nearest-enemy and within-RADIUS queries at random cells against
+ * EnemyStore's bucket index and against a scan of every enemy, after checking that the
+ * two agree.
+ *
+ * Usage: java core.EnemyBenchmark [enemies...]
+ */
+public class EnemyBenchmark {
+    private static final long SEED = 7;
+    private static final int WIDTH = 600;
+    private static final int HEIGHT = 403;
+    private static final int TICKS = 50;
+    private static final int QUERIES = 1000;
+    private static final int RADIUS = 10;
+    private static int sink; // query results, so the JIT cannot drop the queries
+
+    public static void main(String[] args) {
+        int[] counts = {1_000, 10_000, 50_000};
+        if (args.length > 0) {
+            counts = new int[args.length];
+            for (int i = 0; i < args.length; i++) {
+                counts[i] = Integer.parseInt(args[i]);
+            }
+        }
+        World world = new World(SEED, WIDTH, HEIGHT);
+        TileGrid tiles = world.grid();
+        DistanceField field = new DistanceField(tiles);
+        field.rebuild(world.getPlayer().x, world.getPlayer().y);
+        Measure measure = new Measure(2, 5);
+        for (int count : counts) {
+            int[] cells = spread(tiles, count);
+            check(tiles, field, cells);
+            double objects = measure.run(count + " enemies, objects",
+                    () -> objects(tiles.copy(), cells), list -> {
+                        for (int t = 0; t < TICKS; t++) {
+                            for (ObjectEnemy enemy : list) {
+                                enemy.moveTowardsPlayer(field);
+                            }
+                        }
+                    });
+            double store = measure.run(count + " enemies, store",
+                    () -> store(tiles.copy(), cells), s -> {
+                        for (int t = 0; t < TICKS; t++) {
+                            s.step(field, false);
+                        }
+                    });
+            double parallel = measure.run(count + " enemies, parallel",
+                    () -> store(tiles.copy(), cells), s -> {
+                        for (int t = 0; t < TICKS; t++) {
+                            s.step(field, true);
+                        }
+                    });
+            System.out.printf("enemy steps/s: objects %.3g, store %.3g, parallel %.3g on %d threads%n",
+                    objects * count * TICKS, store * count * TICKS, parallel * count * TICKS,
+                    ForkJoinPool.getCommonPoolParallelism());
+            queries(measure, tiles, cells);
+        }
+    }
+
+    private static void queries(Measure measure, TileGrid tiles, int[] cells) {
+        EnemyStore store = store(tiles.copy(), cells);
+        Random random = new Random(SEED);
+        int[] qx = new int[QUERIES];
+        int[] qy = new int[QUERIES];
+        for (int q = 0; q < QUERIES; q++) {
+            qx[q] = random.nextInt(tiles.width());
+            qy[q] = random.nextInt(tiles.height());
+        }
+        int[] out = new int[cells.length];
+        for (int q = 0; q < QUERIES; q++) {
+            int k = store.nearest(qx[q], qy[q]);
+            if (distance(store, k, qx[q], qy[q]) != distance(store, scanNearest(store, qx[q], qy[q]), qx[q], qy[q])
+                    || store.within(qx[q], qy[q], RADIUS, out) != scanWithin(store, qx[q], qy[q], RADIUS)) {
+                throw new IllegalStateException("index and scan disagree at " + qx[q] + ", " + qy[q]);
+            }
+        }
+        String n = cells.length + " enemies, ";
+        double scan = measure.run(n + "nearest, scan", () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                sink += scanNearest(store, qx[q], qy[q]);
+            }
+        });
+        double indexed = measure.run(n + "nearest, buckets", () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                sink += store.nearest(qx[q], qy[q]);
+            }
+        });
+        double scanR = measure.run(n + "within " + RADIUS + ", scan", () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                sink += scanWithin(store, qx[q], qy[q], RADIUS);
+            }
+        });
+        double indexedR = measure.run(n + "within " + RADIUS + ", buckets", () -> {
+            for (int q = 0; q < QUERIES; q++) {
+                sink += store.within(qx[q], qy[q], RADIUS, out);
+            }
+        });
+        System.out.printf("queries/s: nearest scan %.3g, buckets %.3g; within scan %.3g, buckets %.3g%n",
+                scan * QUERIES, indexed * QUERIES, scanR * QUERIES, indexedR * QUERIES);
+    }
+
+    private static int distance(EnemyStore store, int k, int x, int y) {
+        return Math.abs(store.x(k) - x) + Math.abs(store.y(k) - y);
+    }
+
+    private static int scanNearest(EnemyStore store, int x, int y) {
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        for (int k = 0; k < store.size(); k++) {
+            int d = distance(store, k, x, y);
+            if (d < bestDistance) {
+                best = k;
+                bestDistance = d;
+            }
+        }
+        return best;
+    }
+
+    private static int scanWithin(EnemyStore store, int x, int y, int r) {
+        int found = 0;
+        for (int k = 0; k < store.size(); k++) {
+            if (distance(store, k, x, y) <= r) {
+                found++;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns count different random floor cells of tiles.
+     * @throws IllegalArgumentException if tiles has fewer floor cells
+     */
+    private static int[] spread(TileGrid tiles, int count) {
+        int floor = tiles.code(Tileset.ASHEN_SKY);
+        int floors = 0;
+        for (int c = 0; c < tiles.width() * tiles.height(); c++) {
+            floors += tiles.codeAt(c) == floor ? 1 : 0;
+        }
+        if (count > floors) {
+            throw new IllegalArgumentException("only " + floors + " floor cells for " + count + " enemies");
+        }
+        Random random = new Random(SEED);
+        boolean[] taken = new boolean[tiles.width() * tiles.height()];
+        int[] cells = new int[count];
+        for (int k = 0; k < count; ) {
+            int c = random.nextInt(taken.length);
+            if (tiles.codeAt(c) == floor && !taken[c]) {
+                taken[c] = true;
+                cells[k++] = c;
+            }
+        }
+        return cells;
+    }
+
+    private static EnemyStore store(TileGrid tiles, int[] cells) {
+        EnemyStore store = new EnemyStore(tiles, new OccupancyGrid(tiles.width(), tiles.height()), SEED);
+        for (int c : cells) {
+            store.add(c / tiles.height(), c % tiles.height());
+        }
+        return store;
+    }
+
+    private static List<ObjectEnemy> objects(TileGrid tiles, int[] cells) {
+        OccupancyGrid occupants = new OccupancyGrid(tiles.width(), tiles.height());
+        List<ObjectEnemy> list = new ArrayList<>(cells.length);
+        for (int c : cells) {
+            int id = list.size() + 1;
+            occupants.setTile(id, Tileset.ENEMY);
+            occupants.set(c, id);
+            list.add(new ObjectEnemy(new Position(c / tiles.height(), c % tiles.height()),
+                    tiles, occupants, id));
+        }
+        return list;
+    }
+
+    private static void check(TileGrid tiles, DistanceField field, int[] cells) {
+        EnemyStore serial = store(tiles.copy(), cells);
+        EnemyStore parallel = store(tiles.copy(), cells);
+        for (int t = 0; t < TICKS; t++) {
+            serial.step(field, false);
+            parallel.step(field, true);
+        }
+        for (int k = 0; k < cells.length; k++) {
+            if (serial.x(k) != parallel.x(k) || serial.y(k) != parallel.y(k)) {
+                throw new IllegalStateException("enemy " + k + " moved differently");
+            }
+        }
+        System.out.println(cells.length + " enemies move the same");
+    }
+
+    /**
+     * One enemy as an object of its own, as Enemy stored them before EnemyStore.
+     */
+    private static final class ObjectEnemy {
+        private Position position;
+        private final Queue<Position> path = new LinkedList<>();
+        private final Random random = new Random();
+        private final TileGrid world;
+        private final OccupancyGrid occupants;
+        private final int id;
+        private final int wallCode;
+        private int moveCooldown;
+
+        ObjectEnemy(Position start, TileGrid world, OccupancyGrid occupants, int id) {
+            this.position = start;
+            this.world = world;
+            this.occupants = occupants;
+            this.id = id;
+            this.wallCode = world.code(Tileset.ELDENWALL);
+        }
+
+        void moveTowardsPlayer(DistanceField playerField) {
+            if (playerField.distance(position.x, position.y) == 0) {
+                return;
+            }
+            int next = playerField.downhill(position.x, position.y);
+            if (next == DistanceField.NO_STEP) {
+                moveRandomly();
+                return;
+            }
+            Position target = new Position(playerField.x(next), playerField.y(next));
+            if (occupants.isFree(target.x, target.y)) {
+                moveTo(target);
+            }
+        }
+
+        private void moveRandomly() {
+            if (moveCooldown > 0) {
+                moveCooldown--;
+                return;
+            }
+            List<Position> neighbors = new ArrayList<>();
+            int[][] directions = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+            for (int[] dir : directions) {
+                int x = position.x + dir[0];
+                int y = position.y + dir[1];
+                if (world.inBounds(x, y) && world.codeAt(x, y) != wallCode
+                        && occupants.isFree(x, y)) {
+                    neighbors.add(new Position(x, y));
+                }
+            }
+            if (!neighbors.isEmpty()) {
+                moveTo(neighbors.get(random.nextInt(neighbors.size())));
+            }
+        }
+
+        private void moveTo(Position next) {
+            occupants.move(world.index(position.x, position.y), world.index(next.x, next.y), id);
+            position = next;
+        }
+    }
+}
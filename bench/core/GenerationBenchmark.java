@@ -0,0 +1,92 @@
+package core;
+
+import tileengine.TileGrid;
+
+import java.util.Random;
+
+/**
+ * Throughput benchmarks for the world generator, run headless without Engine. Three
+ * suites, each reporting ops/s, p50 and p99 latency and allocation per call (see
+ * {@link Measure}):
+ *
+ *   world   {@code new World(seed, width, height)} per map size, sequential and
+ *           parallel stamping, with a new seed on every call
+ *   bsp     BSPTree construction per map size and leaf count
+ *   passes  stamping and every post-processing pass on its own, and all passes
+ *           fused as World runs them; each pass starts from the output of the
+ *           passes before it
+ *
+ * The largest maps need a bigger heap than the default, e.g. -Xmx4g.
+ *
+ * Usage: java core.GenerationBenchmark [world|bsp|passes|all [width height]]
+ */
+public class GenerationBenchmark {
+    private static final long FIRST_SEED = 1000;
+    private static final int[][] SIZES = {{60, 43}, {250, 253}, {1000, 1003}, {4096, 4096}};
+    private static final int[] LEAF_COUNTS = {15, 30, 120, 480};
+
+    public static void main(String[] args) {
+        String suite = args.length >= 1 ? args[0] : "all";
+        int[][] sizes = SIZES;
+        if (args.length >= 3) {
+            sizes = new int[][] {{Integer.parseInt(args[1]), Integer.parseInt(args[2])}};
+        }
+        Measure measure = new Measure(2, 5);
+        for (int[] size : sizes) {
+            if (suite.equals("world") || suite.equals("all")) {
+                world(measure, size[0], size[1]);
+            }
+            if (suite.equals("bsp") || suite.equals("all")) {
+                bsp(measure, size[0], size[1]);
+            }
+            if (suite.equals("passes") || suite.equals("all")) {
+                passes(measure, size[0], size[1]);
+            }
+        }
+    }
+
+    private static void world(Measure measure, int width, int height) {
+        for (boolean parallel : new boolean[] {false, true}) {
+            long[] seed = {FIRST_SEED};
+            measure.run(label("world", width, height, parallel ? "parallel" : "sequential"),
+                    () -> seed[0]++, s -> new World(s, width, height, parallel));
+        }
+    }
+
+    private static void bsp(Measure measure, int width, int height) {
+        for (int leaves : LEAF_COUNTS) {
+            long[] seed = {FIRST_SEED};
+            measure.run(label("bsp", width, height, leaves + " leaves"),
+                    () -> new Random(seed[0]++), r -> new BSPTree(width, height - 3, leaves, r));
+        }
+    }
+
+    private static void passes(Measure measure, int width, int height) {
+        World world = new World(FIRST_SEED, width, height);
+        measure.run(label("stamp", width, height, ""), world::stampedGrid);
+        for (World.Pass pass : World.Pass.values()) {
+            measure.run(label("pass", width, height, pass.name().toLowerCase()),
+                    () -> before(world, pass), grid -> world.runPass(pass, grid));
+        }
+        measure.run(label("pass", width, height, "all fused"),
+                world::stampedGrid, world::postProcess);
+    }
+
+    /**
+     * Returns a stamped grid of world with every pass before pass already applied.
+     */
+    private static TileGrid before(World world, World.Pass pass) {
+        TileGrid grid = world.stampedGrid();
+        for (World.Pass earlier : World.Pass.values()) {
+            if (earlier == pass) {
+                break;
+            }
+            world.runPass(earlier, grid);
+        }
+        return grid;
+    }
+
+    private static String label(String suite, int width, int height, String detail) {
+        return suite + " " + width + "x" + height + " " + detail;
+    }
+}
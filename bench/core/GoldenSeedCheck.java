@@ -0,0 +1,293 @@
+package core;
+
+import tileengine.TETile;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Regression check for world generation. Every entry of GOLDEN is a map size, a seed
+ * and a hash of the world that seed generated before the generator was optimised;
+ * the check regenerates each world and compares hashes, so any change to the output
+ * of {@code new World(seed, width, height)} shows up as a mismatch. Each world is
+ * checked in both the sequential and the parallel generation mode. Keyed streams build
+ * other worlds than the table, so for them the check only compares the sequential and
+ * the parallel world of each seed with each other.
+ *
+ * The hash covers the description and character of every tile, column by column.
+ * Seeds for which the original generator never finished (World.createEnemies retried
+ * forever when there were too few rooms) are left out of the table.
+ *
+ * Usage: java core.GoldenSeedCheck          checks every entry, exits with 1 on a mismatch
+ *        java core.GoldenSeedCheck --print  prints a new table from the current generator
+ */
+public class GoldenSeedCheck {
+    private static final int[][] SIZES = {{60, 43}, {80, 53}, {120, 83}, {250, 253}};
+    private static final int SEEDS_PER_SIZE = 40;
+    private static final long TIMEOUT_SECONDS = 5;
+
+    /** width height seed hash */
+    private static final String[] GOLDEN = {
+            "60 43 3 55dd677a55847b43",
+            "60 43 7922 753d359a3f0f25a6",
+            "60 43 15841 7fd8f02eb8dfeb94",
+            "60 43 23760 ebd477fa8b41aec",
+            "60 43 31679 306268da56a41384",
+            "60 43 39598 e7989291168786b1",
+            "60 43 47517 f04035c720f7e5ed",
+            "60 43 55436 dead59cb1b913bd8",
+            "60 43 63355 786c0871325bc745",
+            "60 43 71274 95a4aa5ea08fdeab",
+            "60 43 79193 b74376a901fab187",
+            "60 43 87112 b477bee83448ebe9",
+            "60 43 95031 1a20bd6610c08d96",
+            "60 43 102950 5a823a86ad7bb63a",
+            "60 43 110869 b6561e8264d395d0",
+            "60 43 118788 d01d5856e0e6b3ed",
+            "60 43 126707 8d1d5d7065e52c85",
+            "60 43 134626 ec1a953f54c38b2e",
+            "60 43 142545 30ac95648e1c4ad7",
+            "60 43 150464 77504c1761b7d0ee",
+            "60 43 158383 f16d0d164dc3f3a2",
+            "60 43 166302 d4e4f8a4f3ad1ad3",
+            "60 43 174221 529d13e962040ee",
+            "60 43 182140 a6dc276b629c553a",
+            "60 43 190059 451908d7a4085a0f",
+            "60 43 197978 98b0245e8b8edf01",
+            "60 43 205897 ddf491137df43c86",
+            "60 43 213816 89813c5e722d922f",
+            "60 43 221735 dc877f09f9198859",
+            "60 43 229654 b8c340eceb516a28",
+            "60 43 237573 5c340e2b438cd461",
+            "60 43 245492 d1196cd93e210224",
+            "60 43 253411 f3ff09b28efb7557",
+            "60 43 261330 81d7a463f0e0923a",
+            "60 43 269249 491ea3db233da4eb",
+            "60 43 285087 e2efbf9df5e2d434",
+            "60 43 293006 870f9f423e2fe998",
+            "60 43 300925 8cda7a8e11aeddea",
+            "60 43 308844 4ff29846d47f515d",
+            "80 53 3 2ea0eb4d3cc10bb2",
+            "80 53 7922 396e697a239e4d2b",
+            "80 53 15841 3fb293443f3d4386",
+            "80 53 23760 cd04daa1384e3a06",
+            "80 53 31679 de094d70a174a150",
+            "80 53 39598 60cf4afb841341aa",
+            "80 53 47517 f63fba74ee213e94",
+            "80 53 55436 d6200e0dc0c1ed07",
+            "80 53 63355 5cf31a372909ac96",
+            "80 53 71274 d313aeebed8608b8",
+            "80 53 79193 fa1d4e6a92e737dc",
+            "80 53 87112 bf5454ad508325fc",
+            "80 53 95031 86f77e7dd0489c4a",
+            "80 53 102950 735b86a823a18c65",
+            "80 53 110869 6c7806ac464a910f",
+            "80 53 118788 c8e6a6085391daac",
+            "80 53 126707 2dcc6d5cb06ec882",
+            "80 53 134626 ce677aa0a497081e",
+            "80 53 142545 fb53ba61f483e725",
+            "80 53 150464 8f7c0ae19c909b55",
+            "80 53 158383 1b0a890820eb0a38",
+            "80 53 166302 86378ac21b5d6bc0",
+            "80 53 174221 878dafe5a5f933b8",
+            "80 53 182140 97799cf348abd0a7",
+            "80 53 190059 60813907219d4842",
+            "80 53 197978 e1c607961fa4ac62",
+            "80 53 205897 c6e98f2e0d299804",
+            "80 53 213816 ea300f4de748fb8e",
+            "80 53 221735 529ebb7eea451103",
+            "80 53 229654 d6133b2a6558bc7f",
+            "80 53 237573 fca6f07ade288bed",
+            "80 53 245492 c817b94c15776fb",
+            "80 53 253411 7fa35d659143212c",
+            "80 53 261330 be7402c290ad47ae",
+            "80 53 269249 f822280ba8ce076e",
+            "80 53 277168 be06391ff8c0564b",
+            "80 53 285087 a68477286a4409ea",
+            "80 53 293006 1235485a267d890f",
+            "80 53 300925 b7cae134f9c22249",
+            "80 53 308844 214cca406accc448",
+            "120 83 3 a89a2efc96f6bea0",
+            "120 83 7922 71c988dd02058875",
+            "120 83 15841 fad07a35b25fdfdc",
+            "120 83 23760 2f30223650bc9ba1",
+            "120 83 31679 c0dca01f83373fa8",
+            "120 83 39598 1849352cb589fdd3",
+            "120 83 47517 d1032f31b45f21d7",
+            "120 83 55436 181fe1752f47c455",
+            "120 83 63355 65dcc4afc4b6f0bf",
+            "120 83 71274 94759a227ac9a9cd",
+            "120 83 79193 3a18d061d76bac6a",
+            "120 83 87112 2e9207adf33f6cd2",
+            "120 83 95031 a4f556c4ab6b50da",
+            "120 83 102950 88a0922793389035",
+            "120 83 110869 3d8e38894df914c6",
+            "120 83 118788 f0b7ea8dc7030309",
+            "120 83 126707 7d6d07d4d393e25",
+            "120 83 134626 cc7c860b21acdf5d",
+            "120 83 142545 a3f8b80d3f0bcf03",
+            "120 83 158383 93e8d01e70a96e5d",
+            "120 83 166302 f73114e24a72282d",
+            "120 83 174221 56eaaecd48c127",
+            "120 83 182140 de6313fc4ad15741",
+            "120 83 190059 33b505d9bc5a71bc",
+            "120 83 197978 fede9de6fb636cbc",
+            "120 83 205897 d0b87e630838aad6",
+            "120 83 213816 1b9daf575f80f4e3",
+            "120 83 221735 89c66c66c0057985",
+            "120 83 229654 ce10c3c9b333f36d",
+            "120 83 237573 b81779fc868f4542",
+            "120 83 245492 22eca1cbb757ada9",
+            "120 83 253411 9f6a02fe562b2836",
+            "120 83 261330 3014b10c9bf9f38",
+            "120 83 269249 ddfbed04ac2b108c",
+            "120 83 285087 49c4430d6784b12f",
+            "120 83 293006 56e376a52129f59",
+            "120 83 300925 c7ed45c04357759b",
+            "120 83 308844 5f55bd0fc0c03c59",
+            "250 253 3 86ec39e77515c7a4",
+            "250 253 7922 13ea6c1f3a2d8af4",
+            "250 253 15841 9eb9c64a02d1462",
+            "250 253 23760 840a495e727f50eb",
+            "250 253 31679 65eb31ada222f4a5",
+            "250 253 39598 f09eb6af851fd971",
+            "250 253 47517 5f7cc07cb1281e5c",
+            "250 253 55436 b72d4770c4f37a06",
+            "250 253 63355 a34ecfd117b45055",
+            "250 253 71274 3e654043fe879f9c",
+            "250 253 79193 eb6b1cd6dde55971",
+            "250 253 87112 d990bac39327d1f8",
+            "250 253 95031 395272239a775a5b",
+            "250 253 102950 dd311e48f367ee39",
+            "250 253 110869 315ca9b121b39ae3",
+            "250 253 118788 2049c407e5020964",
+            "250 253 126707 5efe15b0bb681ca0",
+            "250 253 134626 7fc90e79a06a0fd1",
+            "250 253 142545 9a46ce254d68de29",
+            "250 253 150464 ff3451a53075b582",
+            "250 253 158383 5da8c059c38ba2fa",
+            "250 253 166302 e31682e6c1b5d9ca",
+            "250 253 174221 bf4b48d84023699a",
+            "250 253 182140 3301d3536c678da8",
+            "250 253 190059 586e7b6dd4c6f60f",
+            "250 253 197978 15f250c3d78d781a",
+            "250 253 205897 9adb7d11a8a506cd",
+            "250 253 213816 12ee6bd3c7224638",
+            "250 253 221735 f12147eaa080eae4",
+            "250 253 229654 62b75c4371ff5c2",
+            "250 253 237573 c9030ee0a946b20f",
+            "250 253 245492 e62d90ab38b1ece9",
+            "250 253 253411 32381aed4f67acf4",
+            "250 253 261330 e02d0168b32ec1b3",
+            "250 253 269249 fdedb6b5ec1a6834",
+            "250 253 277168 29c4f72e07e1a8e5",
+            "250 253 285087 d9607eb03bc845f5",
+            "250 253 293006 e592c4913120f9b7",
+            "250 253 300925 264c10954e028562",
+            "250 253 308844 7bc7f94ff7f8d2ec"
+    };
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 1 && args[0].equals("--print")) {
+            print();
+            System.exit(0);
+        }
+        int mismatches = 0;
+        for (String entry : GOLDEN) {
+            String[] f = entry.split(" ");
+            int width = Integer.parseInt(f[0]);
+            int height = Integer.parseInt(f[1]);
+            long seed = Long.parseLong(f[2]);
+            for (boolean parallel : new boolean[] {false, true}) {
+                String hash = hash(new World(seed, width, height, parallel));
+                if (!hash.equals(f[3])) {
+                    System.out.println("MISMATCH " + width + "x" + height + " seed " + seed
+                            + (parallel ? " (parallel)" : "") + ": expected " + f[3]
+                            + ", got " + hash);
+                    mismatches++;
+                }
+            }
+        }
+        System.out.println(2 * GOLDEN.length - mismatches + "/" + 2 * GOLDEN.length
+                + " golden worlds match");
+        int keyedMismatches = checkKeyed();
+        System.exit(mismatches + keyedMismatches == 0 ? 0 : 1);
+    }
+
+    /**
+     * Generates every seed of the table with keyed streams, sequentially and in
+     * parallel, and returns the number of seeds where the two differ. Seeds that do not
+     * finish in time are skipped.
+     */
+    private static int checkKeyed() throws Exception {
+        int mismatches = 0;
+        int checked = 0;
+        for (String entry : GOLDEN) {
+            String[] f = entry.split(" ");
+            int width = Integer.parseInt(f[0]);
+            int height = Integer.parseInt(f[1]);
+            long seed = Long.parseLong(f[2]);
+            String sequential = hashInTime(() -> new World(seed, width, height, false, true));
+            String parallel = hashInTime(() -> new World(seed, width, height, true, true));
+            if (sequential == null || parallel == null) {
+                continue;
+            }
+            checked++;
+            if (!sequential.equals(parallel)) {
+                System.out.println("MISMATCH " + width + "x" + height + " seed " + seed
+                        + " (keyed): sequential " + sequential + ", parallel " + parallel);
+                mismatches++;
+            }
+        }
+        System.out.println(checked - mismatches + "/" + checked
+                + " keyed worlds match between modes");
+        return mismatches;
+    }
+
+    /**
+     * Returns the hash of the world generator builds, or null if it does not finish
+     * within the timeout. A world that does not finish is left running on a daemon thread.
+     */
+    private static String hashInTime(Callable<World> generator) throws Exception {
+        FutureTask<String> task = new FutureTask<>(() -> hash(generator.call()));
+        Thread thread = new Thread(task);
+        thread.setDaemon(true);
+        thread.start();
+        try {
+            return task.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Prints a table entry for every seed that finishes generating in time. Seeds that
+     * do not finish are skipped.
+     */
+    private static void print() throws Exception {
+        for (int[] size : SIZES) {
+            for (int k = 0; k < SEEDS_PER_SIZE; k++) {
+                long seed = k * 7919L + 3;
+                String hash = hashInTime(() -> new World(seed, size[0], size[1]));
+                if (hash != null) {
+                    System.out.println("            \"" + size[0] + " " + size[1] + " " + seed + " " + hash + "\",");
+                } else {
+                    System.err.println("skipped " + size[0] + "x" + size[1] + " seed " + seed);
+                }
+            }
+        }
+    }
+
+    static String hash(World world) {
+        TETile[][] tiles = world.worldFrame();
+        long h = 0xcbf29ce484222325L;
+        for (TETile[] column : tiles) {
+            for (TETile t : column) {
+                h = (h ^ (t.description().hashCode() * 31L + t.character())) * 0x100000001b3L;
+            }
+        }
+        return Long.toHexString(h);
+    }
+}
@@ -0,0 +1,85 @@
+package core;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Measures an operation for the benchmarks in bench/: a warm-up phase, then a
+ * measurement phase that times every call on its own. Prints the throughput, the
+ * median and 99th percentile latency, and the bytes the calling thread allocated per
+ * call. Allocations made on other threads, such as the ForkJoin workers of parallel
+ * stamping, are not counted.
+ *
+ * Each call can have a setup step that builds its input. The setup runs before the
+ * clock starts and its time and allocations are left out.
+ */
+final class Measure {
+    private static final int MIN_CALLS = 5;
+
+    private final long warmupNanos;
+    private final long measureNanos;
+    private final com.sun.management.ThreadMXBean threads;
+
+    /**
+     * @param warmupSeconds  how long to run the operation before measuring
+     * @param measureSeconds how long to measure, at least MIN_CALLS calls either way
+     */
+    Measure(double warmupSeconds, double measureSeconds) {
+        this.warmupNanos = (long) (warmupSeconds * 1e9);
+        this.measureNanos = (long) (measureSeconds * 1e9);
+        this.threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    }
+
+    /**
+     * Warms up and measures op, calling setup for a fresh input before every call, and
+     * prints one line of results under label.
+     * @return the measured calls per second
+     */
+    <T> double run(String label, Supplier<T> setup, Consumer<T> op) {
+        long end = System.nanoTime() + warmupNanos;
+        for (int calls = 0; calls < MIN_CALLS || System.nanoTime() < end; calls++) {
+            op.accept(setup.get());
+        }
+        long thread = Thread.currentThread().getId();
+        long[] samples = new long[64];
+        int count = 0;
+        long allocated = 0;
+        long measured = 0;
+        while (count < MIN_CALLS || measured < measureNanos) {
+            T input = setup.get();
+            long bytes = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            op.accept(input);
+            long elapsed = System.nanoTime() - start;
+            allocated += threads.getThreadAllocatedBytes(thread) - bytes;
+            measured += elapsed;
+            if (count == samples.length) {
+                samples = Arrays.copyOf(samples, count * 2);
+            }
+            samples[count++] = elapsed;
+        }
+        Arrays.sort(samples, 0, count);
+        double throughput = count / (measured / 1e9);
+        System.out.printf("%-32s %6d ops  %10.2f ops/s  p50 %9.3f ms  p99 %9.3f ms  %10.1f KB/op%n",
+                label, count, throughput, percentile(samples, count, 50) / 1e6,
+                percentile(samples, count, 99) / 1e6, allocated / 1024.0 / count);
+        return throughput;
+    }
+
+    /**
+     * Convenience for operations without input.
+     */
+    double run(String label, Runnable op) {
+        return run(label, () -> null, ignored -> op.run());
+    }
+
+    /**
+     * Returns the nearest-rank percentile p of the first count sorted samples.
+     */
+    private static long percentile(long[] sorted, int count, int p) {
+        int rank = (int) Math.ceil(p / 100.0 * count);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
@@ -0,0 +1,34 @@
+package core;
+
+import tileengine.TERenderer;
+import tileengine.TETile;
+
+/**
+ * Frame rate of TERenderer.renderFrame with each backend, drawing a generated world
+ * into a window of the same size. The ops/s column is frames per second. StdDraw
+ * needs a display for its window, so this does not run headless.
+ *
+ * Usage: java core.RenderBenchmark [width height]
+ */
+public class RenderBenchmark {
+    private static final long SEED = 1000;
+    private static final int[][] SIZES = {{60, 43}, {120, 83}, {250, 253}};
+
+    public static void main(String[] args) {
+        int[][] sizes = SIZES;
+        if (args.length >= 2) {
+            sizes = new int[][] {{Integer.parseInt(args[0]), Integer.parseInt(args[1])}};
+        }
+        Measure measure = new Measure(2, 5);
+        for (int[] size : sizes) {
+            TETile[][] frame = new World(SEED, size[0], size[1]).worldFrame();
+            for (TERenderer.Backend backend : TERenderer.Backend.values()) {
+                TERenderer ter = new TERenderer();
+                ter.initialize(size[0], size[1], 0, 0, backend);
+                measure.run("render " + size[0] + "x" + size[1] + " " + backend.name().toLowerCase(),
+                        () -> ter.renderFrame(frame));
+            }
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,84 @@
+package core;
+
+import tileengine.TETile;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Throughput of replaying a long saved session: a random walk of movement keys on a
+ * generated world, applied one World.movePlayer call per key as the game does, and as
+ * one compiled World.applyMoves call. Before timing, both are run on the same keys and
+ * must leave the same tiles and player.
+ *
+ * Usage: java core.ReplayBenchmark [moves]
+ */
+public class ReplayBenchmark {
+    private static final long SEED = 1000;
+    private static final int WIDTH = 60;
+    private static final int HEIGHT = 43;
+    private static final int DEFAULT_MOVES = 1_000_000;
+
+    public static void main(String[] args) {
+        int count = args.length >= 1 ? Integer.parseInt(args[0]) : DEFAULT_MOVES;
+        String keys = walk(count);
+        byte[] moves = Engine.compileMoves(keys);
+        check(keys, moves);
+
+        Measure measure = new Measure(2, 5);
+        double perStep = measure.run("replay " + count + " movePlayer",
+                () -> new World(SEED, WIDTH, HEIGHT), world -> stepByStep(world, moves));
+        double compiled = measure.run("replay " + count + " applyMoves",
+                () -> new World(SEED, WIDTH, HEIGHT), world -> world.applyMoves(moves, 0, count));
+        System.out.printf("moves/s: movePlayer %.3g, applyMoves %.3g%n",
+                perStep * count, compiled * count);
+    }
+
+    /**
+     * Returns count random movement keys that never step onto the treasure.
+     */
+    private static String walk(int count) {
+        World world = new World(SEED, WIDTH, HEIGHT);
+        Position treasure = world.getTreasure();
+        Random random = new Random(SEED);
+        StringBuilder keys = new StringBuilder(count);
+        char[] wasd = {'W', 'D', 'S', 'A'};
+        int[] dx = {0, 1, 0, -1};
+        int[] dy = {1, 0, -1, 0};
+        while (keys.length() < count) {
+            int d = random.nextInt(4);
+            Position player = world.getPlayer();
+            if (player.x + dx[d] == treasure.x && player.y + dy[d] == treasure.y) {
+                continue;
+            }
+            world.movePlayer(Engine.Direction.values()[d]);
+            keys.append(wasd[d]);
+        }
+        return keys.toString();
+    }
+
+    private static void stepByStep(World world, byte[] moves) {
+        Engine.Direction[] directions = Engine.Direction.values();
+        for (byte move : moves) {
+            world.movePlayer(directions[move]);
+        }
+    }
+
+    private static void check(String keys, byte[] moves) {
+        World a = new World(SEED, WIDTH, HEIGHT);
+        World b = new World(SEED, WIDTH, HEIGHT);
+        stepByStep(a, moves);
+        b.applyMoves(moves, 0, moves.length);
+        TETile[][] fa = a.worldFrame();
+        TETile[][] fb = b.worldFrame();
+        for (int x = 0; x < fa.length; x++) {
+            if (!Arrays.equals(fa[x], fb[x])) {
+                throw new IllegalStateException("replays differ in column " + x);
+            }
+        }
+        if (!a.getPlayer().equals(b.getPlayer())) {
+            throw new IllegalStateException("replays leave the player in different places");
+        }
+        System.out.println("replays of " + keys.length() + " keys match");
+    }
+}
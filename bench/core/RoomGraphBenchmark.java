@@ -0,0 +1,125 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.Random;
+
+/**
+ * Compares finding the next step of a long walk with RoomGraph, which plans over the
+ * rooms and hallways and searches tiles only inside the current one, against A* over
+ * every tile with Pathfinding. The walks join random pairs of connected floor cells of
+ * a generated world. Before timing, every RoomGraph walk is checked to be a real walk
+ * to the goal, no longer than following nextStep all the way there, and its length is
+ * compared with the shortest one.
+ *
+ * Usage: java core.RoomGraphBenchmark [width height [pairs]]
+ */
+public class RoomGraphBenchmark {
+    private static final long SEED = 42;
+
+    public static void main(String[] args) {
+        int[][] sizes = {{60, 43}, {200, 153}, {500, 403}};
+        int pairs = 200;
+        if (args.length >= 2) {
+            sizes = new int[][] {{Integer.parseInt(args[0]), Integer.parseInt(args[1])}};
+        }
+        if (args.length >= 3) {
+            pairs = Integer.parseInt(args[2]);
+        }
+        for (int[] size : sizes) {
+            run(size[0], size[1], pairs);
+        }
+    }
+
+    private static void run(int width, int height, int pairs) {
+        World world = new World(SEED, width, height);
+        TileGrid tiles = world.grid();
+        long start = System.nanoTime();
+        RoomGraph graph = world.roomGraph();
+        System.out.printf("%dx%d: %d nodes, %d portals, built in %.2f ms%n", width, height,
+                graph.nodeCount(), graph.portalCount(), (System.nanoTime() - start) / 1e6);
+        Pathfinding astar = new Pathfinding(tiles);
+        int[][] walks = walks(world, pairs);
+        check(tiles, graph, astar, walks);
+
+        Measure measure = new Measure(2, 5);
+        double tiled = measure.run(width + "x" + height + " nextStep, A*", () -> {
+            for (int[] w : walks) {
+                astar.nextStep(w[0], w[1], w[2], w[3], Pathfinding.Mode.ASTAR);
+            }
+        });
+        double rooms = measure.run(width + "x" + height + " nextStep, RoomGraph", () -> {
+            for (int[] w : walks) {
+                graph.nextStep(w[0], w[1], w[2], w[3]);
+            }
+        });
+        System.out.printf("us per step: A* %.2f, RoomGraph %.2f%n",
+                1e6 / (tiled * walks.length), 1e6 / (rooms * walks.length));
+    }
+
+    /**
+     * Returns count pairs {sx, sy, tx, ty} of different floor cells that are connected.
+     */
+    private static int[][] walks(World world, int count) {
+        TileGrid tiles = world.grid();
+        int floor = tiles.code(Tileset.ASHEN_SKY);
+        Random random = new Random(SEED);
+        int[][] walks = new int[count][];
+        for (int k = 0; k < count; ) {
+            int s = random.nextInt(tiles.width() * tiles.height());
+            int t = random.nextInt(tiles.width() * tiles.height());
+            Position a = new Position(s / tiles.height(), s % tiles.height());
+            Position b = new Position(t / tiles.height(), t % tiles.height());
+            if (s != t && tiles.codeAt(s) == floor && tiles.codeAt(t) == floor
+                    && world.isReachable(a, b)) {
+                walks[k++] = new int[] {a.x, a.y, b.x, b.y};
+            }
+        }
+        return walks;
+    }
+
+    private static void check(TileGrid tiles, RoomGraph graph, Pathfinding astar, int[][] walks) {
+        int wall = tiles.code(Tileset.ELDENWALL);
+        int[] path = new int[tiles.width() * tiles.height()];
+        double total = 0;
+        double worst = 1;
+        for (int[] w : walks) {
+            int length = graph.findPath(w[0], w[1], w[2], w[3], path);
+            int shortest = astar.findPath(w[0], w[1], w[2], w[3], Pathfinding.Mode.ASTAR, new int[0]);
+            if (length == RoomGraph.NO_PATH || length > path.length) {
+                throw new IllegalStateException("no walk for " + java.util.Arrays.toString(w));
+            }
+            int x = w[0];
+            int y = w[1];
+            for (int i = 0; i < length; i++) {
+                int nx = graph.x(path[i]);
+                int ny = graph.y(path[i]);
+                if (Math.abs(nx - x) + Math.abs(ny - y) != 1 || tiles.codeAt(path[i]) == wall) {
+                    throw new IllegalStateException("bad step " + i + " for " + java.util.Arrays.toString(w));
+                }
+                x = nx;
+                y = ny;
+            }
+            if (x != w[2] || y != w[3]) {
+                throw new IllegalStateException("walk misses the goal " + java.util.Arrays.toString(w));
+            }
+            int next = graph.nextStep(w[0], w[1], w[2], w[3]);
+            if (next != path[0]) {
+                throw new IllegalStateException("nextStep leaves the walk " + java.util.Arrays.toString(w));
+            }
+            int steps = 0;
+            for (int c = graph.cell(w[0], w[1]); c != graph.cell(w[2], w[3]) && steps <= length; steps++) {
+                c = graph.nextStep(graph.x(c), graph.y(c), w[2], w[3]);
+            }
+            if (steps > length) {
+                throw new IllegalStateException("nextStep walks longer than findPath " + java.util.Arrays.toString(w));
+            }
+            double ratio = (double) length / shortest;
+            total += ratio;
+            worst = Math.max(worst, ratio);
+        }
+        System.out.printf("%d walks valid; length over shortest: mean %.3f, worst %.3f%n",
+                walks.length, total / walks.length, worst);
+    }
+}
@@ -6,13 +6,16 @@ import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 //@Source ChatGPT Engine/TileSet/Sound/World/Position/Enemy
 public class BSPTree {
     private static final int ROOM_SPLIT_MIN = 6;
     private static final int ROOM_SIZE_MIN = 4;
+    private static final long ROOT_KEY = 1;
 
-    Random r;                   // random seed
+    Random r;                   // random seed, null when every leaf has its own stream
+    long seed;                  // seed of the leaf streams
     Leaf root;                  // the root leaf
     ArrayList<Room> rooms;     // list of rooms
     ArrayList<Room> hallways;  // list of hallways
@@ -27,7 +30,29 @@ public class BSPTree {
      */
     BSPTree(int w, int h, int leafNum, Random r) {
         this.r = r;
-        root = new Leaf(0, 0, w, h);
+        build(new Leaf(0, 0, w, h), leafNum);
+    }
+
+    /**
+     * Generates the BSPTree with a separate random stream for every leaf. The stream
+     * of a leaf is keyed by the seed and the path from the root to the leaf, so what
+     * happens in one subtree does not depend on the draws made in any other.
+     *
+     * @param w       the width of the total space
+     * @param h       the height of the total space
+     * @param leafNum the number of leaves
+     * @param seed    the seed of the leaf streams
+     */
+    BSPTree(int w, int h, int leafNum, long seed) {
+        this.seed = seed;
+        Leaf top = new Leaf(0, 0, w, h);
+        top.key = ROOT_KEY;
+        top.stream = RandomUtils.stream(seed, ROOT_KEY);
+        build(top, leafNum);
+    }
+
+    private void build(Leaf top, int leafNum) {
+        root = top;
         rooms = new ArrayList<>();
         hallways = new ArrayList<>();
         // Splits the leaves with breadth first search order.
@@ -60,6 +85,8 @@ public class BSPTree {
         Room room;
         Leaf left;
         Leaf right;
+        long key;                 // path key of the leaf stream
+        SplittableRandom stream;  // own random stream, or null to use the shared one
 
         Leaf(int x, int y, int w, int h) {
             this.x = x;
@@ -72,29 +99,53 @@ public class BSPTree {
             right = null;
         }
 
+        /**
+         * Returns a random real number uniformly in [0, 1) from the stream of this leaf.
+         */
+        double uniform() {
+            return stream != null ? RandomUtils.uniform(stream) : RandomUtils.uniform(r);
+        }
+
+        /**
+         * Returns a random integer uniformly in [0, n) from the stream of this leaf.
+         */
+        int uniform(int n) {
+            return stream != null ? RandomUtils.uniform(stream, n) : RandomUtils.uniform(r, n);
+        }
+
+        /**
+         * Gives child the stream of this leaf's left (side 0) or right (side 1) child.
+         */
+        void inherit(Leaf child, int side) {
+            if (stream != null) {
+                child.key = RandomUtils.childKey(key, side);
+                child.stream = RandomUtils.stream(seed, child.key);
+            }
+        }
+
         /**
          * Creates a room with 80% possibility. The size and position of the room
          * is randomly decided on given requirements.
          */
         void createRoom() {
-            if (RandomUtils.uniform(r) > 0.8) {
+            if (uniform() > 0.8) {
                 return;
             }
             // The width and height of the room are randomly decided but no less than
             // the ROOM_SIZE_MIN or half the leaf width / height + 2.
             int minWidth = Math.max(ROOM_SIZE_MIN, w / 2 + 2);
             int minHeight = Math.max(ROOM_SIZE_MIN, h / 2 + 2);
-            int width = RandomUtils.uniform(r, w - minWidth + 1) + minWidth;
-            int height = RandomUtils.uniform(r, h - minHeight + 1) + minHeight;
+            int width = uniform(w - minWidth + 1) + minWidth;
+            int height = uniform(h - minHeight + 1) + minHeight;
             // The xOffset and yOffset of the room are randomly decided and keep the
             // room within the range of the leaf.
             int xOffset = x;
             int yOffset = y;
             if (w > width) {
-                xOffset = x + RandomUtils.uniform(r, w - width);
+                xOffset = x + uniform(w - width);
             }
             if (h > height) {
-                yOffset = y + RandomUtils.uniform(r, h - height);
+                yOffset = y + uniform(h - height);
             }
             this.room = new Room(xOffset, yOffset, width, height);
         }
@@ -117,7 +168,7 @@ public class BSPTree {
             return false;
         }
         // decides split direction (horizontal or vertical)
-        int direction = RandomUtils.uniform(r) < 0.5 ? 0 : 1;
+        int direction = leaf.uniform() < 0.5 ? 0 : 1;
         int length = direction == 0 ? leaf.w : leaf.h;
         if (length < ROOM_SPLIT_MIN * 2) {
             direction = (direction + 1) % 2;
@@ -125,7 +176,7 @@ public class BSPTree {
         }
         leaf.direction = direction;
         // splits into two leaves with random size no less than the ROOM_SPLIT_MIN
-        int split = RandomUtils.uniform(r, length - ROOM_SPLIT_MIN * 2 + 1) + ROOM_SPLIT_MIN;
+        int split = leaf.uniform(length - ROOM_SPLIT_MIN * 2 + 1) + ROOM_SPLIT_MIN;
         if (direction == 0) {
             leaf.left = new Leaf(leaf.x, leaf.y, split, leaf.h);
             leaf.right = new Leaf(leaf.x + split - 1, leaf.y, leaf.w - split, leaf.h);
@@ -133,6 +184,8 @@ public class BSPTree {
             leaf.left = new Leaf(leaf.x, leaf.y, leaf.w, split);
             leaf.right = new Leaf(leaf.x, leaf.y + split - 1, leaf.w, leaf.h - split);
         }
+        leaf.inherit(leaf.left, 0);
+        leaf.inherit(leaf.right, 1);
         return true;
     }
     /**
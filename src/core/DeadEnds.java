@@ -0,0 +1,171 @@
+package core;
+
+import tileengine.TileGrid;
+
+import java.util.Arrays;
+
+/**
+ * Fills in dead ends: floor tiles with exactly three wall neighbours are turned into
+ * walls, and so are the floors that become dead ends because of that, until none are
+ * left.
+ *
+ * The result is the same as sweeping the grid in index order and repeating the sweep
+ * until it changes nothing, but only cells that can have changed are looked at again.
+ * A cell only needs another look after one of its neighbours was walled. If the walled
+ * neighbour comes before the cell in index order, the cell is still ahead in the
+ * current sweep; otherwise the sweep has already passed it and it waits for the next.
+ * Each sweep visits its cells from a heap in index order, so the cells are seen in the
+ * same states as a full sweep would see them.
+ *
+ * The first sweep can also run as a stage of a {@link StencilPipeline}; {@link #finish}
+ * then carries on from the cells that sweep walled.
+ */
+class DeadEnds {
+    private final TileGrid grid;
+    private final int floorCode;
+    private final int wallCode;
+    private final int width;
+    private final int height;
+    private final int[] queued;  // sweep in which the cell is waiting for a look
+    private IntMinHeap sweep;
+    private IntMinHeap next;
+    private int round;
+    private int[] walled;        // cells walled by the first sweep, in index order
+    private int walledCount;
+
+    DeadEnds(TileGrid grid, int floorCode, int wallCode) {
+        this.grid = grid;
+        this.floorCode = floorCode;
+        this.wallCode = wallCode;
+        this.width = grid.width();
+        this.height = grid.height();
+        this.queued = new int[width * height];
+        this.sweep = new IntMinHeap(64);
+        this.next = new IntMinHeap(64);
+        this.round = 1;
+        this.walled = new int[16];
+        this.walledCount = 0;
+    }
+
+    /**
+     * Fills in every dead end of grid.
+     *
+     * @param grid      the world tiles
+     * @param floorCode the palette code of floor tiles
+     * @param wallCode  the palette code of wall tiles
+     */
+    static void prune(TileGrid grid, int floorCode, int wallCode) {
+        DeadEnds d = new DeadEnds(grid, floorCode, wallCode);
+        for (int i = 0; i < d.queued.length; i++) {
+            if (d.isDeadEnd(i)) {
+                d.sweep.add(i, i);
+                d.queued[i] = d.round;
+            }
+        }
+        d.run();
+    }
+
+    /**
+     * Returns the first sweep as a stencil. The stencil only records what it walls;
+     * call {@link #finish} once its output is in the grid.
+     */
+    StencilPipeline.Stencil firstSweep() {
+        return w -> {
+            if (w.c != floorCode) {
+                return w.c;
+            }
+            int walls = (w.e() == wallCode ? 1 : 0) + (w.w() == wallCode ? 1 : 0)
+                    + (w.n() == wallCode ? 1 : 0) + (w.s() == wallCode ? 1 : 0);
+            if (walls != 3) {
+                return w.c;
+            }
+            if (walledCount == walled.length) {
+                walled = Arrays.copyOf(walled, walledCount * 2);
+            }
+            walled[walledCount++] = w.index;
+            return wallCode;
+        };
+    }
+
+    /**
+     * Runs the remaining sweeps after {@link #firstSweep} has run over the grid. Only the
+     * floors the first sweep had already passed when it walled their neighbour can have
+     * become dead ends since.
+     */
+    void finish() {
+        for (int k = 0; k < walledCount; k++) {
+            int i = walled[k];
+            int x = i / height;
+            int y = i % height;
+            if (y > 0) {
+                queue(i - 1, i);
+            }
+            if (x > 0) {
+                queue(i - height, i);
+            }
+        }
+        IntMinHeap done = sweep;
+        sweep = next;
+        next = done;
+        round++;
+        run();
+    }
+
+    private void run() {
+        while (!sweep.isEmpty()) {
+            while (!sweep.isEmpty()) {
+                int i = sweep.poll();
+                if (isDeadEnd(i)) {
+                    grid.setCode(i, wallCode);
+                    requeueNeighbours(i);
+                }
+            }
+            IntMinHeap done = sweep;
+            sweep = next;
+            next = done;
+            round++;
+        }
+    }
+
+    private void requeueNeighbours(int i) {
+        int x = i / height;
+        int y = i % height;
+        if (y + 1 < height) {
+            queue(i + 1, i);
+        }
+        if (x + 1 < width) {
+            queue(i + height, i);
+        }
+        if (y > 0) {
+            queue(i - 1, i);
+        }
+        if (x > 0) {
+            queue(i - height, i);
+        }
+    }
+
+    private void queue(int n, int walled) {
+        if (grid.codeAt(n) != floorCode) {
+            return;
+        }
+        int r = n > walled ? round : round + 1;
+        if (queued[n] != r) {
+            queued[n] = r;
+            (n > walled ? sweep : next).add(n, n);
+        }
+    }
+
+    private boolean isDeadEnd(int i) {
+        if (grid.codeAt(i) != floorCode) {
+            return false;
+        }
+        int x = i / height;
+        int y = i % height;
+        int walls = 0;
+        if (x + 1 < width && grid.codeAt(i + height) == wallCode) walls++;
+        if (x > 0 && grid.codeAt(i - height) == wallCode) walls++;
+        if (y + 1 < height && grid.codeAt(i + 1) == wallCode) walls++;
+        if (y > 0 && grid.codeAt(i - 1) == wallCode) walls++;
+        return walls == 3;
+    }
+}
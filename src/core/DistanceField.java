@@ -0,0 +1,220 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.Arrays;
+
+/**
+ * Walking distance from a set of source cells to every tile of the world, filled in by
+ * one breadth first search outward from the sources. Every tile except ELDENWALL is
+ * walkable. Any number of walkers can then head for the nearest source by stepping to
+ * the neighbour with the smallest distance, which takes constant time per step.
+ *
+ * When the only source moves to a neighbouring tile the field is repaired instead of
+ * rebuilt. The grid is bipartite and every step costs 1, so moving the source by one
+ * tile changes every reachable distance by exactly one: cells whose shortest paths can
+ * run through the new source get one closer, all others one further away. Distances are
+ * stored relative to a shared offset, so the repair bumps the offset and only rewrites
+ * the cells that got closer, which are found by walking the old shortest path DAG down
+ * from the new source.
+ *
+ * Cells are packed as {@code x * height + y}, the same as in {@link Pathfinding}.
+ */
+public class DistanceField {
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+    public static final int NO_STEP = -1;
+    private static final int MAX_OFFSET = 1 << 30;
+
+    private final TileGrid tiles;
+    private final int wallCode;
+    private final int width;
+    private final int height;
+    private final int[] dist;    // distance minus offset, or UNREACHABLE
+    private final int[] queue;
+    private final int[] mark;    // generation in which a repair reached the cell
+    private int generation;
+    private int offset;          // added to dist to get the walking distance
+    private int source;          // the only source, or -1 after a multi-source rebuild
+    private int lastUpdated;     // cells written by the last rebuild or repair
+
+    public DistanceField(TileGrid tiles) {
+        this.tiles = tiles;
+        this.width = tiles.width();
+        this.height = tiles.height();
+        this.wallCode = tiles.code(Tileset.ELDENWALL);
+        dist = new int[width * height];
+        queue = new int[width * height];
+        mark = new int[width * height];
+        Arrays.fill(dist, UNREACHABLE);
+        source = -1;
+    }
+
+    /**
+     * Recomputes the field with (x, y) as the only source.
+     */
+    public void rebuild(int x, int y) {
+        queue[0] = cell(x, y);
+        rebuild(queue, 1);
+        source = dist[cell(x, y)] == 0 ? cell(x, y) : -1;
+    }
+
+    /**
+     * Moves the only source to (x, y). The field is repaired in place if (x, y) is a
+     * walkable neighbour of the current source and rebuilt otherwise.
+     */
+    public void moveSource(int x, int y) {
+        int s = cell(x, y);
+        if (source < 0 || distance(x, y) != 1 || offset >= MAX_OFFSET) {
+            rebuild(x, y);
+            return;
+        }
+        generation++;
+        mark[s] = generation;
+        queue[0] = s;
+        int head = 0;
+        int tail = 1;
+        while (head < tail) {
+            int c = queue[head++];
+            int cx = c / height;
+            int cy = c % height;
+            int below = dist[c] + 1;
+            if (cx + 1 < width) {
+                tail = descend(c + height, below, tail);
+            }
+            if (cy + 1 < height) {
+                tail = descend(c + 1, below, tail);
+            }
+            if (cx > 0) {
+                tail = descend(c - height, below, tail);
+            }
+            if (cy > 0) {
+                tail = descend(c - 1, below, tail);
+            }
+        }
+        offset++;
+        for (int i = 0; i < tail; i++) {
+            dist[queue[i]] -= 2;
+        }
+        source = s;
+        lastUpdated = tail;
+    }
+
+    private int descend(int n, int below, int tail) {
+        if (dist[n] == below && mark[n] != generation) {
+            mark[n] = generation;
+            queue[tail++] = n;
+        }
+        return tail;
+    }
+
+    /**
+     * Recomputes the field from the first count cells of sources.
+     *
+     * @param sources packed source cells
+     * @param count   the number of sources to use
+     */
+    public void rebuild(int[] sources, int count) {
+        Arrays.fill(dist, UNREACHABLE);
+        offset = 0;
+        source = -1;
+        int tail = 0;
+        for (int i = 0; i < count; i++) {
+            int s = sources[i];
+            if (dist[s] != 0 && isWalkable(s)) {
+                dist[s] = 0;
+                queue[tail++] = s;
+            }
+        }
+        int head = 0;
+        while (head < tail) {
+            int c = queue[head++];
+            int cx = c / height;
+            int cy = c % height;
+            int nd = dist[c] + 1;
+            if (cx + 1 < width) {
+                tail = reach(c + height, nd, tail);
+            }
+            if (cy + 1 < height) {
+                tail = reach(c + 1, nd, tail);
+            }
+            if (cx > 0) {
+                tail = reach(c - height, nd, tail);
+            }
+            if (cy > 0) {
+                tail = reach(c - 1, nd, tail);
+            }
+        }
+        lastUpdated = tail;
+    }
+
+    private int reach(int n, int nd, int tail) {
+        if (dist[n] == UNREACHABLE && isWalkable(n)) {
+            dist[n] = nd;
+            queue[tail++] = n;
+        }
+        return tail;
+    }
+
+    /**
+     * Returns the walking distance from (x, y) to the nearest source, or
+     * {@code UNREACHABLE}.
+     */
+    public int distance(int x, int y) {
+        int d = dist[cell(x, y)];
+        return d == UNREACHABLE ? UNREACHABLE : d + offset;
+    }
+
+    /**
+     * Returns the number of cells whose stored distance was written by the last rebuild
+     * or repair.
+     */
+    public int lastUpdated() {
+        return lastUpdated;
+    }
+
+    /**
+     * Returns the neighbour of (x, y) that is closest to a source, if it is closer than
+     * (x, y) itself.
+     *
+     * @return the packed neighbour cell, or {@code NO_STEP} if (x, y) is a source or
+     * cannot reach one
+     */
+    public int downhill(int x, int y) {
+        int c = cell(x, y);
+        int best = NO_STEP;
+        int bestDist = dist[c];  // offset is shared, so stored values compare the same
+        if (x + 1 < width && dist[c + height] < bestDist) {
+            best = c + height;
+            bestDist = dist[best];
+        }
+        if (y + 1 < height && dist[c + 1] < bestDist) {
+            best = c + 1;
+            bestDist = dist[best];
+        }
+        if (x > 0 && dist[c - height] < bestDist) {
+            best = c - height;
+            bestDist = dist[best];
+        }
+        if (y > 0 && dist[c - 1] < bestDist) {
+            best = c - 1;
+        }
+        return best;
+    }
+
+    public int cell(int x, int y) {
+        return x * height + y;
+    }
+
+    public int x(int cell) {
+        return cell / height;
+    }
+
+    public int y(int cell) {
+        return cell % height;
+    }
+
+    private boolean isWalkable(int c) {
+        return tiles.codeAt(c) != wallCode;
+    }
+}
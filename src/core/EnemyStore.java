@@ -0,0 +1,427 @@
+package core;
+
+import tileengine.OccupancyGrid;
+import tileengine.TileGrid;
+import tileengine.Tileset;
+import utils.RandomUtils;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Every enemy of a world, stored as parallel arrays indexed by enemy number: x, y, the
+ * state of its last move and the ticks left before it may wander again. An enemy is
+ * nothing but its index, so moving them all is one pass over a few int arrays instead
+ * of a walk through a list of objects that each hold a Position, a Random and a
+ * reference to the grid.
+ *
+ * Enemies stand in an OccupancyGrid over the terrain, enemy k as entity k + 1 shown as
+ * ENEMY, and the store keeps it in step with x and y. The terrain is only read, for its
+ * walls. An enemy does not step onto a cell another enemy stands on, so every enemy
+ * stays visible and the occupancy grid can tell which one is where.
+ *
+ * For questions about an area rather than one cell, within() and nearest() sort the
+ * enemies into a uniform grid of BUCKET x BUCKET tile buckets, each a list threaded
+ * through the int array next, and look at the buckets around a cell instead of at
+ * every enemy. The buckets are built by the first query after the enemies move, in
+ * one pass over the enemies, so steps pay nothing for them. Nothing in the game asks
+ * them yet: World places enemies one per room and checks collisions on the occupancy
+ * grid, which answers for one cell in a single read.
+ *
+ * A step has two phases. The decide phase works out each enemy's intended cell from
+ * the world as it was at the start of the tick and writes only that enemy's slot of
+ * intent and state, so it can be split over the common ForkJoinPool. A wandering enemy
+ * draws its direction by the key (tick, index) under the store's seed rather than from
+ * a shared generator, so the draws do not depend on the split either. The resolve
+ * phase then moves the enemies on one thread in a fixed order, so a tick gives the
+ * same result however the decide phase was split.
+ */
+final class EnemyStore {
+    /** Standing on the player, so not moving. */
+    static final int IDLE = 0;
+    /** Stepped down the player's distance field. */
+    static final int CHASING = 1;
+    /** Cannot reach the player and stepped at random, or is waiting to. */
+    static final int WANDERING = 2;
+
+    private static final int WANDER_COOLDOWN = 0; // ticks between random steps
+    private static final int BUCKET_SHIFT = 3;
+    private static final int BUCKET = 1 << BUCKET_SHIFT; // side of a bucket in tiles
+    private static final int NONE = -1;
+    private static final int DECIDE_CHUNK = 1024; // enemies per decide task
+
+    private final TileGrid terrain;
+    private final OccupancyGrid occupants;
+    private final int wallCode;
+    private long seed;                  // of the wander draws
+    private long tick;                  // steps taken so far
+    private int[] x = new int[16];
+    private int[] y = new int[16];
+    private int[] state = new int[16];
+    private int[] cooldown = new int[16];
+    private int[] next;                 // the enemy after k in k's bucket, or NONE
+    private int[] intent;               // the cell k means to step to this tick, or NONE
+    private final int[] head;           // the first enemy of each bucket, or NONE
+    private boolean bucketed;           // whether head and next hold the enemies' cells
+    private int[] claim;                // per cell: 1 + the first enemy to intend it, or 0
+    private final int bucketsY;
+    private int count;
+
+    /**
+     * @param terrain the tiles the enemies walk on
+     * @param occupants the grid over terrain to stand the enemies in, with no entities
+     *                  whose ids the store will use
+     */
+    EnemyStore(TileGrid terrain, OccupancyGrid occupants) {
+        this(terrain, occupants, new Random().nextLong());
+    }
+
+    /**
+     * @param seed the seed of the wanderers' random steps
+     */
+    EnemyStore(TileGrid terrain, OccupancyGrid occupants, long seed) {
+        this.terrain = terrain;
+        this.occupants = occupants;
+        this.wallCode = terrain.code(Tileset.ELDENWALL);
+        this.seed = seed;
+        int bucketsX = (terrain.width() + BUCKET - 1) >> BUCKET_SHIFT;
+        this.bucketsY = (terrain.height() + BUCKET - 1) >> BUCKET_SHIFT;
+        this.head = new int[bucketsX * bucketsY];
+    }
+
+    /**
+     * Adds an enemy at (x, y), which must be free.
+     * @return the index of the new enemy
+     */
+    int add(int x, int y) {
+        if (count == this.x.length) {
+            int capacity = count * 2;
+            this.x = Arrays.copyOf(this.x, capacity);
+            this.y = Arrays.copyOf(this.y, capacity);
+            state = Arrays.copyOf(state, capacity);
+            cooldown = Arrays.copyOf(cooldown, capacity);
+        }
+        this.x[count] = x;
+        this.y[count] = y;
+        state[count] = IDLE;
+        cooldown[count] = 0;
+        occupants.setTile(count + 1, Tileset.ENEMY);
+        occupants.set(occupants.index(x, y), count + 1);
+        bucketed = false;
+        return count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    int x(int k) {
+        return x[k];
+    }
+
+    int y(int k) {
+        return y[k];
+    }
+
+    int state(int k) {
+        return state[k];
+    }
+
+    /**
+     * Returns the ticks left before enemy k may wander again.
+     */
+    int cooldown(int k) {
+        return cooldown[k];
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    /**
+     * Returns the number of steps taken so far.
+     */
+    long tick() {
+        return tick;
+    }
+
+    /**
+     * Moves enemy k to (x, y) at once, with cooldown ticks left before it may wander,
+     * for loading a save.
+     */
+    void place(int k, int x, int y, int cooldown) {
+        occupants.move(occupants.index(this.x[k], this.y[k]), occupants.index(x, y), k + 1);
+        bucketed = false;
+        this.x[k] = x;
+        this.y[k] = y;
+        state[k] = IDLE;
+        this.cooldown[k] = cooldown;
+    }
+
+    /**
+     * Sets the seed of the wander draws and the number of steps taken, for loading a
+     * save, so that the enemies go on drawing the steps they would have drawn.
+     */
+    void restoreClock(long seed, long tick) {
+        this.seed = seed;
+        this.tick = tick;
+    }
+
+    /**
+     * Returns the index of the enemy at (x, y), or -1 if there is none.
+     */
+    int indexAt(int x, int y) {
+        int id = occupants.idAt(x, y);
+        return id > 0 && id <= count ? id - 1 : -1;
+    }
+
+    /**
+     * Writes the index of every enemy within walking-grid distance r of (cx, cy), that
+     * is with |dx| + |dy| <= r, to out, as many as fit.
+     * @return the number of such enemies, which may be more than out.length
+     */
+    int within(int cx, int cy, int r, int[] out) {
+        bucket();
+        int found = 0;
+        int fromX = Math.max(0, cx - r) >> BUCKET_SHIFT;
+        int toX = Math.min(terrain.width() - 1, cx + r) >> BUCKET_SHIFT;
+        int fromY = Math.max(0, cy - r) >> BUCKET_SHIFT;
+        int toY = Math.min(terrain.height() - 1, cy + r) >> BUCKET_SHIFT;
+        for (int bx = fromX; bx <= toX; bx++) {
+            for (int by = fromY; by <= toY; by++) {
+                for (int k = head[bx * bucketsY + by]; k != NONE; k = next[k]) {
+                    if (Math.abs(x[k] - cx) + Math.abs(y[k] - cy) <= r) {
+                        if (found < out.length) {
+                            out[found] = k;
+                        }
+                        found++;
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the index of an enemy with the least |dx| + |dy| to (cx, cy), or -1 if
+     * there are no enemies. Buckets are searched in square rings around the bucket of
+     * (cx, cy), and the search stops once no enemy in the next ring can be closer than
+     * the best found.
+     */
+    int nearest(int cx, int cy) {
+        bucket();
+        int bucketsX = head.length / bucketsY;
+        int bx = cx >> BUCKET_SHIFT;
+        int by = cy >> BUCKET_SHIFT;
+        int best = -1;
+        int bestDistance = Integer.MAX_VALUE;
+        int rings = Math.max(Math.max(bx, bucketsX - 1 - bx), Math.max(by, bucketsY - 1 - by));
+        for (int ring = 0; ring <= rings && count > 0; ring++) {
+            // every cell of a bucket in this ring is at least this far from (cx, cy)
+            if (ring > 0 && (ring - 1) * BUCKET + 1 >= bestDistance) {
+                break;
+            }
+            for (int x0 = Math.max(0, bx - ring); x0 <= Math.min(bucketsX - 1, bx + ring); x0++) {
+                boolean edge = x0 == bx - ring || x0 == bx + ring;
+                int step = edge ? 1 : 2 * ring;
+                for (int y0 = by - ring; y0 <= by + ring; y0 += step) {
+                    if (y0 < 0 || y0 >= bucketsY) {
+                        continue;
+                    }
+                    for (int k = head[x0 * bucketsY + y0]; k != NONE; k = next[k]) {
+                        int d = Math.abs(x[k] - cx) + Math.abs(y[k] - cy);
+                        if (d < bestDistance) {
+                            best = k;
+                            bestDistance = d;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Moves every enemy one step: down field if it can reach the field's source, to a
+     * random free walkable neighbour after WANDER_COOLDOWN ticks if it cannot, and not
+     * at all if it is on the source. The decide phase runs on the common ForkJoinPool
+     * once there are more than DECIDE_CHUNK enemies, and on the calling thread below
+     * that.
+     * @param field the distance field with the player as its source
+     */
+    void step(DistanceField field) {
+        step(field, count > DECIDE_CHUNK);
+    }
+
+    /**
+     * Moves every enemy one step as step(field) does, deciding on the common
+     * ForkJoinPool if parallel is set and on the calling thread otherwise. Both give
+     * the same result.
+     */
+    void step(DistanceField field, boolean parallel) {
+        if (intent == null || intent.length < count) {
+            intent = new int[x.length];
+        }
+        if (claim == null) {
+            claim = new int[terrain.width() * terrain.height()];
+        }
+        if (parallel) {
+            ForkJoinPool.commonPool().invoke(new DecideTask(field, 0, count));
+        } else {
+            decide(field, 0, count);
+        }
+        resolve();
+        bucketed = false;
+        tick++;
+    }
+
+    /**
+     * The decide phase for enemies [from, to): sets their state, intent and cooldown
+     * from the positions and occupants of the start of the tick, and writes nothing
+     * else.
+     */
+    private void decide(DistanceField field, int from, int to) {
+        int h = terrain.height();
+        for (int k = from; k < to; k++) {
+            int ex = x[k];
+            int ey = y[k];
+            intent[k] = NONE;
+            if (field.distance(ex, ey) == 0) {
+                state[k] = IDLE;
+                continue;
+            }
+            int next = field.downhill(ex, ey);
+            if (next != DistanceField.NO_STEP) {
+                state[k] = CHASING;
+                intent[k] = next;
+            } else {
+                state[k] = WANDERING;
+                if (cooldown[k] > 0) {
+                    cooldown[k]--;
+                } else {
+                    intent[k] = wanderTarget(k, ex, ey, h);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns a random open neighbour of enemy k, which is at (ex, ey), or NONE.
+     * Neighbours are counted in the order right, up, left, down.
+     */
+    private int wanderTarget(int k, int ex, int ey, int h) {
+        int from = ex * h + ey;
+        int right = ex + 1 < terrain.width() && isOpen(from + h) ? 1 : 0;
+        int up = ey + 1 < h && isOpen(from + 1) ? 1 : 0;
+        int left = ex > 0 && isOpen(from - h) ? 1 : 0;
+        int down = ey > 0 && isOpen(from - 1) ? 1 : 0;
+        int open = right + up + left + down;
+        if (open == 0) {
+            return NONE;
+        }
+        int pick = RandomUtils.uniform(seed, tick << 32 | k, open);
+        if (pick < right) {
+            return from + h;
+        } else if (pick < right + up) {
+            return from + 1;
+        } else if (pick < right + up + left) {
+            return from - h;
+        }
+        return from - 1;
+    }
+
+    /**
+     * The resolve phase. Of the enemies that intend the same cell, the one with the
+     * lowest index gets it and the rest wait. A winner moves once its cell is free:
+     * winners whose cell is free at once move in index order, and each move lets the
+     * winner of the cell it left follow, and so on down the queue behind it. Enemies
+     * that would swap cells or go round a cycle never see their cell free, and wait.
+     */
+    private void resolve() {
+        int h = terrain.height();
+        for (int k = 0; k < count; k++) {
+            if (intent[k] != NONE && claim[intent[k]] == 0) {
+                claim[intent[k]] = k + 1;
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            if (intent[k] != NONE && claim[intent[k]] != k + 1) {
+                intent[k] = NONE;   // lost its cell, or its cell was taken by the winner
+            }
+            int m = k;
+            while (m != NONE && intent[m] != NONE && occupants.isFree(intent[m])) {
+                int from = x[m] * h + y[m];
+                int to = intent[m];
+                moveTo(m, from, to, h);
+                if (state[m] == WANDERING) {
+                    cooldown[m] = WANDER_COOLDOWN;
+                }
+                intent[m] = NONE;
+                claim[to] = 0;
+                m = claim[from] - 1;    // the winner of the cell m left, or NONE
+            }
+        }
+        for (int k = 0; k < count; k++) {
+            if (intent[k] != NONE) {
+                claim[intent[k]] = 0;
+            }
+        }
+    }
+
+    /**
+     * Runs the decide phase for enemies [from, to), split into DECIDE_CHUNK pieces.
+     */
+    @SuppressWarnings("serial")
+    private class DecideTask extends RecursiveAction {
+        private final DistanceField field;
+        private final int from, to;
+
+        DecideTask(DistanceField field, int from, int to) {
+            this.field = field;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= DECIDE_CHUNK) {
+                decide(field, from, to);
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new DecideTask(field, from, mid), new DecideTask(field, mid, to));
+        }
+    }
+
+    private boolean isOpen(int cell) {
+        return terrain.codeAt(cell) != wallCode && occupants.isFree(cell);
+    }
+
+    private void moveTo(int k, int from, int to, int h) {
+        occupants.move(from, to, k + 1);
+        x[k] = to / h;
+        y[k] = to % h;
+    }
+
+    /**
+     * Sorts the enemies into their buckets, unless they have not moved since the last
+     * time.
+     */
+    private void bucket() {
+        if (bucketed) {
+            return;
+        }
+        if (next == null || next.length < count) {
+            next = new int[x.length];
+        }
+        Arrays.fill(head, NONE);
+        for (int k = count - 1; k >= 0; k--) {
+            int b = (x[k] >> BUCKET_SHIFT) * bucketsY + (y[k] >> BUCKET_SHIFT);
+            next[k] = head[b];
+            head[b] = k;
+        }
+        bucketed = true;
+    }
+}
@@ -3,9 +3,13 @@ package core;
 import edu.princeton.cs.algs4.StdDraw;
 import tileengine.TERenderer;
 import tileengine.TETile;
+import tileengine.OccupancyGrid;
+import tileengine.TileGrid;
 import java.awt.*;
 import java.io.*;
 import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 public class Engine {
     public enum Direction {
@@ -19,7 +23,10 @@ public class Engine {
     private static final int WIDTH = 60;
     private static final int HEIGHT = 43;
     private static final int COUNTDOWN = 4;
-    private long lastEnemyMoveTime = 0;
+    private static final String SAVE_FILE = "./save_data.bin";
+    private static final long FRAME_NANOS = 1_000_000_000 / 60;  // render at 60 fps
+    private static final int MAX_CATCH_UP = 5;  // ticks run at once before dropping time
+    static final byte NOT_A_MOVE = -1;          // a key of compileMoves that is not WASD
     private final long enemyMoveInterval = 50; //lower # for faster enemy
     private boolean lineOfSightEnabled = false;
     private final Font TITLE_FONT = new Font("Monaco", Font.BOLD, 30);
@@ -30,12 +37,28 @@ public class Engine {
     private Sound soundManager;
     private TERenderer ter;
     private StringBuilder inputs;
+    private int savedThrough;  // length of inputs when last saved, -1 if not saved yet
+    private int journalLength; // keys in the journal of the save file
+    private long savedTick;    // enemy ticks of the world when the snapshot was taken
     private Status status;
     private StringBuilder seedToBe;
     private long seed;
     private World world;
+    private final int worldWidth;
+    private final int worldHeight;
 
     public Engine() {
+        this(WIDTH, HEIGHT);
+    }
+
+    /**
+     * Creates an engine whose worlds are worldWidth x worldHeight tiles, counting the
+     * three rows that World leaves for the HUD. The window stays WIDTH x HEIGHT; a
+     * larger world scrolls with the player.
+     */
+    public Engine(int worldWidth, int worldHeight) {
+        this.worldWidth = worldWidth;
+        this.worldHeight = worldHeight;
         ter = new TERenderer();
         soundManager = new Sound();
     }
@@ -48,65 +71,145 @@ public class Engine {
         StdDraw.setCanvasSize(WIDTH * 16, HEIGHT * 16);
         StdDraw.setXscale(0, WIDTH);
         StdDraw.setYscale(0, HEIGHT);
-        ter.initialize(WIDTH, HEIGHT, 0, 2);
-        // Restart to the main menu when a game ends.
-        // Only exit program (directly) when the users enter "Q".
-        while (true) {
-            initialize();
-            InputSource inputSource = new KeyboardInputSource();
-            startAudio("proj3/resources/audio/mainmenu.wav");
-            // Handles inputs from the main menu and the prompt menu
-            drawMenu();
-            while (status != Status.PLAY) {
-                parseMenuChoice(inputSource, true);
-            }
-            startAudio("proj3/resources/audio/bossfightmusic.wav");
-            // Handles inputs from the game
-            while (status == Status.PLAY) {
-                if (StdDraw.hasNextKeyTyped()) {
-                    parseMovement(inputSource, true);
+        ter.initialize(WIDTH, HEIGHT, 0, 2, TERenderer.Backend.FRAMEBUFFER);
+        ter.setViewport(WIDTH, HEIGHT - 3);
+        QueuedInputSource inputSource = new QueuedInputSource();
+        try {
+            // Restart to the main menu when a game ends.
+            // Only exit program (directly) when the users enter "Q".
+            while (true) {
+                initialize();
+                startAudio("proj3/resources/audio/mainmenu.wav");
+                // Handles inputs from the main menu and the prompt menu
+                drawMenu();
+                while (status != Status.PLAY) {
+                    parseMenuChoice(inputSource, true);
                 }
-                long currentTime = System.currentTimeMillis();
-                if (currentTime - lastEnemyMoveTime > enemyMoveInterval) {
-                    Position playerPosition = world.getPlayerPosition();
-                    for (Enemy enemy : world.getEnemies()) {
-                        if (enemy != null) {
-                            enemy.moveTowardsPlayer(playerPosition);
-                        }
-                    }
-                    lastEnemyMoveTime = currentTime;
-                    if (world.isPlayerCaptured()) {
-                        status = Status.LOSE;
-                        stopAudio();
-                        Thread deathSoundThread = new Thread(() -> {
-                            soundManager.playWav("proj3/resources/audio/deathsound.wav");
-                        });
-                        deathSoundThread.start();
-                        drawResult();
-                        StdDraw.show();
-                        try {
-                            deathSoundThread.join();
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            System.err.println("Interrupted while waiting for death sound to finish: " + e.getMessage());
-                        }
-                        initialize();
-                        status = Status.START;
-                        break;
+                startAudio("proj3/resources/audio/bossfightmusic.wav");
+                // Handles inputs from the game
+                play(inputSource);
+                if (status == Status.LOSE) {
+                    stopAudio();
+                    Thread deathSoundThread = new Thread(() -> {
+                        soundManager.playWav("proj3/resources/audio/deathsound.wav");
+                    });
+                    deathSoundThread.start();
+                    drawResult();
+                    StdDraw.show();
+                    try {
+                        deathSoundThread.join();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        System.err.println("Interrupted while waiting for death sound to finish: " + e.getMessage());
                     }
-                }
-                drawWorld();
-                //StdDraw.show();
-                StdDraw.pause(50); // do not change to keep music transition smooth
-                if (status == Status.WIN) {
+                    initialize();
+                    status = Status.START;
+                } else if (status == Status.WIN) {
                     stopAudio();
                     drawResult();
                     soundManager.playWav("proj3/resources/audio/endingsound.wav");
-                    break;
                 }
+                //Let users press any key to continue
+                //inputSource.getNextKey(); // had to comment this out in order to allow the auto transition from end game to the main menu
+            }
+        } finally {
+            inputSource.close();
+        }
+    }
+
+    /**
+     * Plays one game until it is won or lost. A simulation thread applies keys as soon
+     * as they are typed and moves the enemies every enemyMoveInterval ms on a fixed
+     * step, publishing what changed to a WorldSnapshot.Exchange. This thread draws the
+     * latest snapshot FRAME_RATE times a second into a copy of the world of its own. A
+     * slow frame does not slow the enemies down, and a key shows on the next frame.
+     * Drawing stops once a snapshot leaves PLAY or the simulation thread has ended.
+     */
+    private void play(QueuedInputSource inputSource) {
+        WorldSnapshot.Exchange exchange = new WorldSnapshot.Exchange();
+        Thread simulation = new Thread(() -> simulate(inputSource, exchange), "simulation");
+        simulation.start();
+        TileGrid view = null;
+        OccupancyGrid occupants = null;
+        FieldOfView sight = null;
+        long frame = System.nanoTime();
+        while (true) {
+            boolean simulating = simulation.isAlive(); // before take, so nothing is missed
+            WorldSnapshot snapshot = exchange.take();
+            if (snapshot.reset != null) {
+                view = snapshot.reset;
+                occupants = snapshot.resetOccupants;
+                sight = new FieldOfView(view);
+            }
+            if (view != null) {
+                snapshot.applyTo(view, occupants);
+                sight.compute(snapshot.player.x, snapshot.player.y, World.SIGHT_RADIUS);
+                drawWorld(view, occupants, sight, snapshot.player, snapshot.lineOfSight);
+            }
+            if (snapshot.status != null && snapshot.status != Status.PLAY || !simulating) {
+                break;
+            }
+            frame += FRAME_NANOS;
+            long wait = frame - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            } else {
+                frame = System.nanoTime();
+            }
+        }
+        try {
+            simulation.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * The simulation thread of play: runs until the game leaves PLAY, publishing after
+     * every key and every tick. Between ticks it sleeps on the input queue, so a key wakes
+     * it at once. A key that leaves no world, as 'L' without a save file, publishes only
+     * the status. If the simulation fails, the game goes back to START.
+     */
+    private void simulate(QueuedInputSource inputSource, WorldSnapshot.Exchange exchange) {
+        try {
+            runSimulation(inputSource, exchange);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            status = Status.START;
+            exchange.publish(status);
+        }
+    }
+
+    private void runSimulation(QueuedInputSource inputSource, WorldSnapshot.Exchange exchange) {
+        long tickNanos = enemyMoveInterval * 1_000_000;
+        long nextTick = System.nanoTime() + tickNanos;
+        exchange.publish(world, true, status, lineOfSightEnabled);
+        while (status == Status.PLAY) {
+            World before = world;
+            boolean changed = false;
+            long wait = Math.max(0, nextTick - System.nanoTime());
+            char key = inputSource.poll(wait, TimeUnit.NANOSECONDS);
+            while (status == Status.PLAY && key != QueuedInputSource.NO_KEY) {
+                parseMovement(key, false);
+                changed = true;
+                key = inputSource.poll();
+            }
+            for (int steps = 0; status == Status.PLAY && System.nanoTime() >= nextTick; steps++) {
+                if (steps == MAX_CATCH_UP) {
+                    nextTick = System.nanoTime();
+                }
+                world.moveEnemies();
+                if (world.isPlayerCaptured()) {
+                    status = Status.LOSE;
+                }
+                nextTick += tickNanos;
+                changed = true;
+            }
+            if (changed && world == null) {
+                exchange.publish(status);
+            } else if (changed) {
+                exchange.publish(world, world != before, status, lineOfSightEnabled);
             }
-            //Let users press any key to continue
-            //inputSource.getNextKey(); // had to comment this out in order to allow the auto transition from end game to the main menu
         }
     }
 
@@ -161,12 +264,12 @@ public class Engine {
         // that works for many different input types.
 
         initialize();
-        InputSource inputSource = new StringInputSource(input);
+        StringInputSource inputSource = new StringInputSource(input);
         while (status != Status.PLAY && inputSource.possibleNextInput()) {
             parseMenuChoice(inputSource, false);
         }
-        while (status == Status.PLAY && inputSource.possibleNextInput()) {
-            parseMovement(inputSource, false);
+        if (status == Status.PLAY) {
+            replay(input, inputSource.index());
         }
         if (world != null) {
             return world.worldFrame();
@@ -174,6 +277,56 @@ public class Engine {
         return null;
     }
 
+    /**
+     * Plays the game keys of keys from index from on, without drawing, the same as
+     * parseMovement would one key at a time. The keys are compiled once into an array
+     * of moves, and each run of movement keys goes to World.applyMoves in one call;
+     * only the other keys, such as ':' or 'T', go through parseMovement.
+     */
+    private void replay(String keys, int from) {
+        byte[] moves = compileMoves(keys);
+        int i = from;
+        while (status == Status.PLAY && i < keys.length()) {
+            if (moves[i] == NOT_A_MOVE) {
+                parseMovement(keys.charAt(i), false);
+                i++;
+                continue;
+            }
+            int end = i;
+            while (end < keys.length() && moves[end] != NOT_A_MOVE) {
+                end++;
+            }
+            int applied = world.applyMoves(moves, i, end);
+            for (int k = i; k < applied; k++) {
+                inputs.append(Character.toUpperCase(keys.charAt(k)));
+            }
+            colonPressed = false;
+            // the treasure tile is never overwritten before the player reaches it
+            if (world.getPlayer().equals(world.getTreasure())) {
+                status = Status.WIN;
+            }
+            i = applied;
+        }
+    }
+
+    /**
+     * Returns the Direction ordinal of every movement key of keys, and NOT_A_MOVE for
+     * every other key.
+     */
+    static byte[] compileMoves(String keys) {
+        byte[] moves = new byte[keys.length()];
+        for (int i = 0; i < moves.length; i++) {
+            switch (Character.toUpperCase(keys.charAt(i))) {
+                case 'W': moves[i] = (byte) Direction.UP.ordinal(); break;
+                case 'D': moves[i] = (byte) Direction.RIGHT.ordinal(); break;
+                case 'S': moves[i] = (byte) Direction.DOWN.ordinal(); break;
+                case 'A': moves[i] = (byte) Direction.LEFT.ordinal(); break;
+                default: moves[i] = NOT_A_MOVE; break;
+            }
+        }
+        return moves;
+    }
+
     /**
      * Handles inputs from the main menu and the prompt menu.
      *
@@ -209,7 +362,7 @@ public class Engine {
             }
             status = Status.PLAY;
             inputs.append(ch);
-            world = new World(seed, WIDTH, HEIGHT);
+            world = new World(seed, worldWidth, worldHeight);
         } else if (ch == 'Q') {
             System.exit(0);
         } /**else if (version == Version.VERSION2 && ch == 'V') {
@@ -228,7 +381,17 @@ public class Engine {
      * @param draw if it's needed to draw
      */
     private void parseMovement(InputSource inputSource, boolean draw) {
-        char ch = Character.toUpperCase(inputSource.getNextKey());
+        parseMovement(inputSource.getNextKey(), draw);
+    }
+
+    /**
+     * Handles one key from the game.
+     *
+     * @param key the key
+     * @param draw if it's needed to draw
+     */
+    private void parseMovement(char key, boolean draw) {
+        char ch = Character.toUpperCase(key);
         if (colonPressed && ch == 'Q') {
             System.exit(0);
             return;
@@ -264,7 +427,8 @@ public class Engine {
                 break;
             case 'T':
                 toggleLineOfSight();
-                if (lineOfSightEnabled) {
+                inputs.append(ch);
+                if (draw && lineOfSightEnabled) {
                     StdDraw.textRight(WIDTH - 1, HEIGHT - 2, "\"T\":Toggle View ON");
                 }
                 colonPressed = false;
@@ -286,6 +450,9 @@ public class Engine {
      */
     private void initialize() {
         inputs = new StringBuilder("");
+        savedThrough = -1;
+        journalLength = 0;
+        savedTick = 0;
         status = Status.START;
         seedToBe = new StringBuilder("");
         seed = -1;
@@ -297,6 +464,7 @@ public class Engine {
      * Draws the main menu.
      */
     private void drawMenu() {
+        ter.invalidate();
         StdDraw.clear(Color.black);
         String imagePath = "proj3/resources/images/eldenback.jpeg";
         double imageWidth = 60;
@@ -322,6 +490,7 @@ public class Engine {
         int midHeight = HEIGHT / 2;
         String input = inputs.toString();
         input = input.substring(input.indexOf('N') + 1);
+        ter.invalidate();
         StdDraw.clear(Color.black);
         StdDraw.setPenColor(Color.white);
         StdDraw.setFont(TITLE_FONT);
@@ -338,9 +507,10 @@ public class Engine {
      */
     private void drawNewWorld() {
         TETile[][] worldFrame = world.worldFrame();
+        ter.centerOn(world.getPlayer(), world.grid().width(), world.grid().height());
         for (int i = COUNTDOWN; i > 0; i--) {
             ter.renderFrame(worldFrame);
-            addInstruction(worldFrame);
+            addInstruction(world.grid(), world.occupants());
             //addCountdown(i);
             //StdDraw.show();
             StdDraw.pause(0);
@@ -352,22 +522,30 @@ public class Engine {
      * Draws the game with a cross view.
      */
     private void drawWorld() {
-        TETile[][] worldFrame = world.worldFrame();
-        if (lineOfSightEnabled) {
-            ter.renderTiles(world);
+        drawWorld(world.grid(), world.occupants(), world.sight(), world.getPlayer(),
+                lineOfSightEnabled);
+    }
+
+    /**
+     * Draws tiles with occupants on top, only what sight sees if lineOfSight is set,
+     * with the camera following player, and the HUD on top.
+     */
+    private void drawWorld(TileGrid tiles, OccupancyGrid occupants, FieldOfView sight,
+                           Position player, boolean lineOfSight) {
+        ter.follow(player, tiles.width(), tiles.height());
+        if (lineOfSight) {
+            ter.renderSight(tiles, occupants, sight);
         } else {
-            ter.renderFrame(worldFrame);
-            //ter.renderRestrictedFrame(worldFrame, world.getPlayer(), world.getTreasure());
+            ter.renderDamage(tiles, occupants);
         }
-        //ter.renderRestrictedFrame(worldFrame, world.getPlayer(), world.getTreasure());
-        addInstruction(worldFrame);
+        addInstruction(tiles, occupants);
         StdDraw.show();
     }
 
     /**
      * Adds instructions to StdDraw.
      */
-    private void addInstruction(TETile[][] worldFrame) {
+    private void addInstruction(TileGrid tiles, OccupancyGrid occupants) {
         StdDraw.setFont(REGULAR_FONT);
         StdDraw.setPenColor(Color.white);
         StdDraw.textLeft(0, HEIGHT - 0.7, "A:LEFT W:UP D:RIGHT S:DOWN");
@@ -375,11 +553,11 @@ public class Engine {
         StdDraw.textRight(WIDTH - 12, HEIGHT - 0.7, "\"T\":Toggle View");
         StdDraw.setPenColor(Color.YELLOW);
         //StdDraw.text(WIDTH - 30, HEIGHT - 0.7 , "REACH THE ERDTREE");
-        int mouseX = (int) StdDraw.mouseX();
-        int mouseY = (int) StdDraw.mouseY();
-        int newMouseY = mouseY - 2;
-        if (mouseX >= 0 && mouseX < WIDTH && newMouseY >= 0 && newMouseY < HEIGHT - 3) {
-            TETile tile = worldFrame[mouseX][newMouseY];
+        double mouseY = StdDraw.mouseY();
+        int worldX = ter.worldX(StdDraw.mouseX());
+        int worldY = ter.worldY(mouseY);
+        if (mouseY >= 2 && mouseY < HEIGHT - 1 && tiles.inBounds(worldX, worldY)) {
+            TETile tile = occupants.tileAt(tiles, worldX, worldY);
             String tileDescription = tile.description();
             StdDraw.setFont(REGULAR_FONT);
             StdDraw.setPenColor(Color.BLACK);
@@ -406,7 +584,7 @@ public class Engine {
     private void drawResult() {
         TETile[][] worldFrame = world.worldFrame();
         ter.renderFrame(worldFrame);
-        addInstruction(worldFrame);
+        addInstruction(world.grid(), world.occupants());
         StdDraw.setFont(REGULAR_FONT);
         if (status == Status.WIN) {
             StdDraw.setPenColor(Color.YELLOW);
@@ -424,22 +602,28 @@ public class Engine {
     }
 
     /**
-     * Saves the current inputs to a text file.
+     * Saves the game. The keys typed since the last save are added to the journal of
+     * the save file if it holds a snapshot of this game, the enemies have not moved
+     * since, and the journal stays within SaveFile.JOURNAL_LIMIT; otherwise a new
+     * snapshot replaces the file. The journal holds keys only, so once the enemies have
+     * moved, as they do between keys in keyboard play, only a snapshot keeps them where
+     * they are.
      */
     private void save() {
-        File f = new File("./save_data.txt");
+        File f = new File(SAVE_FILE);
         try {
-            if (!f.exists()) {
-                f.createNewFile();
+            int pending = inputs.length() - savedThrough;
+            long tick = world.getEnemies().tick();
+            if (savedThrough >= 0 && f.exists() && tick == savedTick
+                    && journalLength + pending <= SaveFile.JOURNAL_LIMIT) {
+                SaveFile.appendJournal(f, inputs.subSequence(savedThrough, inputs.length()));
+                journalLength += pending;
+            } else {
+                SaveFile.writeSnapshot(f, seed, worldWidth, worldHeight, world, lineOfSightEnabled);
+                journalLength = 0;
+                savedTick = tick;
             }
-            FileOutputStream fs = new FileOutputStream(f);
-            ObjectOutputStream os = new ObjectOutputStream(fs);
-            os.writeObject(inputs.toString());
-            os.writeBoolean(lineOfSightEnabled);
-            os.close();
-        } catch (FileNotFoundException e) {
-            System.out.println("file not found");
-            System.exit(0);
+            savedThrough = inputs.length();
         } catch (IOException e) {
             System.out.println(e);
             System.exit(0);
@@ -447,29 +631,28 @@ public class Engine {
     }
 
     /**
-     * Reads the saved text file and handles the inputs in the file.
+     * Loads the saved game: its snapshot, then the keys of its journal. Without a save
+     * file the game is reset with no world.
      */
     private void load() {
-        File f = new File("./save_data.txt");
-        String loadInputs = null;
-        if (f.exists()) {
-            try {
-                FileInputStream fs = new FileInputStream(f);
-                ObjectInputStream os = new ObjectInputStream(fs);
-                loadInputs = os.readObject().toString();
-                lineOfSightEnabled = os.readBoolean();
-                os.close();
-            } catch (FileNotFoundException e) {
-                System.out.println("file not found");
-                System.exit(0);
-            } catch (IOException e) {
-                System.out.println(e);
-                System.exit(0);
-            } catch (ClassNotFoundException e) {
-                System.out.println("class not found");
-                System.exit(0);
-            }
+        File f = new File(SAVE_FILE);
+        initialize();
+        if (!f.exists()) {
+            return;
+        }
+        try {
+            SaveFile save = SaveFile.read(f);
+            seed = save.seed();
+            world = save.world();
+            lineOfSightEnabled = save.lineOfSight();
+            status = Status.PLAY;
+            replay(save.journal(), 0);
+            savedThrough = inputs.length();
+            journalLength = save.journal().length();
+            savedTick = world.getEnemies().tick();
+        } catch (IOException e) {
+            System.out.println(e);
+            System.exit(0);
         }
-        interactWithInputString(loadInputs);
     }
 }
@@ -0,0 +1,158 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The tiles that can be seen from one tile of the world within a radius, found by
+ * recursive shadowcasting. ELDENWALL blocks sight and everything else is see-through;
+ * a wall that is seen is itself visible. The edge of the world blocks sight too.
+ *
+ * The result is a bitset over the (2 * radius + 1)^2 box around the origin, so asking
+ * whether a tile is visible is one bit test. Walls do not change once a world is
+ * generated, so results are kept in a small LRU cache per (origin, radius): stepping
+ * back onto a tile, or several viewers at the same spot, reuse the earlier result.
+ *
+ * Shadowcasting scans each of the eight octants row by row outward from the origin,
+ * keeping the range of slopes that is still lit. A wall narrows the range for the rows
+ * behind it, and a run of walls splits it, the part before the run being scanned by a
+ * recursive call. Every tile is looked at no more than once per octant.
+ */
+public class FieldOfView {
+    private static final int CACHE_SIZE = 256;
+    // xx, xy, yx, yy of the transform from octant coordinates to world offsets
+    private static final int[][] OCTANTS = {
+        {1, 0, 0, 1}, {0, 1, 1, 0}, {0, -1, 1, 0}, {-1, 0, 0, 1},
+        {-1, 0, 0, -1}, {0, -1, -1, 0}, {0, 1, -1, 0}, {1, 0, 0, -1}
+    };
+
+    private final TileGrid tiles;
+    private final int wallCode;
+    private final Map<Long, long[]> cache;
+    private int originX;
+    private int originY;
+    private int radius;
+    private int side;            // 2 * radius + 1
+    private long[] visible;      // bit (dx + radius) * side + (dy + radius)
+
+    public FieldOfView(TileGrid tiles) {
+        this.tiles = tiles;
+        this.wallCode = tiles.code(Tileset.ELDENWALL);
+        this.cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, long[]> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+        this.radius = -1;
+    }
+
+    /**
+     * Makes (x, y) with the given radius the current field of view, casting it unless
+     * it is the current one or in the cache.
+     */
+    public void compute(int x, int y, int radius) {
+        if (x == originX && y == originY && radius == this.radius) {
+            return;
+        }
+        originX = x;
+        originY = y;
+        this.radius = radius;
+        side = 2 * radius + 1;
+        long key = (long) tiles.index(x, y) << 16 | radius;
+        visible = cache.get(key);
+        if (visible != null) {
+            return;
+        }
+        visible = new long[(side * side + 63) / 64];
+        mark(x, y);
+        for (int[] o : OCTANTS) {
+            cast(1, 1.0, 0.0, o[0], o[1], o[2], o[3]);
+        }
+        cache.put(key, visible);
+    }
+
+    /**
+     * Returns whether (x, y) is in the current field of view.
+     */
+    public boolean isVisible(int x, int y) {
+        int dx = x - originX;
+        int dy = y - originY;
+        if (radius < 0 || dx < -radius || dx > radius || dy < -radius || dy > radius) {
+            return false;
+        }
+        int bit = (dx + radius) * side + (dy + radius);
+        return (visible[bit >>> 6] & 1L << bit) != 0;
+    }
+
+    public int x() {
+        return originX;
+    }
+
+    public int y() {
+        return originY;
+    }
+
+    public int radius() {
+        return radius;
+    }
+
+    /**
+     * Scans one octant from row onward, lighting the tiles whose slopes lie between
+     * start and end (start > end).
+     */
+    private void cast(int row, double start, double end, int xx, int xy, int yx, int yy) {
+        if (start < end) {
+            return;
+        }
+        double r2 = radius * radius + radius;  // rounds the edge of the circle outward
+        double nextStart = start;
+        for (int j = row; j <= radius; j++) {
+            int dy = -j;
+            boolean blocked = false;
+            for (int dx = -j; dx <= 0; dx++) {
+                double leftSlope = (dx - 0.5) / (dy + 0.5);
+                double rightSlope = (dx + 0.5) / (dy - 0.5);
+                if (start < rightSlope) {
+                    continue;
+                }
+                if (end > leftSlope) {
+                    break;
+                }
+                int x = originX + dx * xx + dy * xy;
+                int y = originY + dx * yx + dy * yy;
+                boolean opaque = isOpaque(x, y);
+                if (dx * dx + dy * dy <= r2 && tiles.inBounds(x, y)) {
+                    mark(x, y);
+                }
+                if (blocked) {
+                    if (opaque) {
+                        nextStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = nextStart;
+                    }
+                } else if (opaque && j < radius) {
+                    blocked = true;
+                    cast(j + 1, start, leftSlope, xx, xy, yx, yy);
+                    nextStart = rightSlope;
+                }
+            }
+            if (blocked) {
+                return;
+            }
+        }
+    }
+
+    private boolean isOpaque(int x, int y) {
+        return !tiles.inBounds(x, y) || tiles.codeAt(x, y) == wallCode;
+    }
+
+    private void mark(int x, int y) {
+        int bit = (x - originX + radius) * side + (y - originY + radius);
+        visible[bit >>> 6] |= 1L << bit;
+    }
+}
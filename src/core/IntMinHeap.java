@@ -0,0 +1,99 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of int values ordered by an int key. Values and keys are kept in
+ * parallel arrays, so adding and removing entries never allocates once the heap has
+ * grown to its working size.
+ */
+class IntMinHeap {
+    private int[] values;
+    private int[] keys;
+    private int size;
+
+    IntMinHeap(int capacity) {
+        values = new int[Math.max(capacity, 16)];
+        keys = new int[values.length];
+        size = 0;
+    }
+
+    /**
+     * Adds value with the given key.
+     *
+     * @param value the value
+     * @param key   the key the heap is ordered by
+     */
+    void add(int value, int key) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+            keys = Arrays.copyOf(keys, size * 2);
+        }
+        int i = size++;
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (keys[p] <= key) {
+                break;
+            }
+            values[i] = values[p];
+            keys[i] = keys[p];
+            i = p;
+        }
+        values[i] = value;
+        keys[i] = key;
+    }
+
+    /**
+     * Removes the entry with the smallest key.
+     *
+     * @return the value of the removed entry
+     */
+    int poll() {
+        int top = values[0];
+        size--;
+        if (size > 0) {
+            siftDown(values[size], keys[size]);
+        }
+        return top;
+    }
+
+    /**
+     * Returns the smallest key without removing its entry.
+     *
+     * @return the smallest key
+     */
+    int peekKey() {
+        return keys[0];
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void clear() {
+        size = 0;
+    }
+
+    private void siftDown(int value, int key) {
+        int i = 0;
+        int half = size >>> 1;
+        while (i < half) {
+            int c = 2 * i + 1;
+            if (c + 1 < size && keys[c + 1] < keys[c]) {
+                c++;
+            }
+            if (key <= keys[c]) {
+                break;
+            }
+            values[i] = values[c];
+            keys[i] = keys[c];
+            i = c;
+        }
+        values[i] = value;
+        keys[i] = key;
+    }
+}
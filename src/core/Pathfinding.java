@@ -1,32 +1,231 @@
 package core;
 
-import tileengine.TETile;
+import tileengine.TileGrid;
+import tileengine.Tileset;
 
-import java.io.Serializable;
+import java.util.Arrays;
 
-// need to implement A*
+/**
+ * Shortest path search over the world tiles, either A* with a Manhattan heuristic or
+ * a plain breadth first search. Every tile except ELDENWALL is walkable.
+ *
+ * Cells are packed into a single int as {@code x * height + y}. The g-scores and
+ * parents of a search are stamped with a generation number instead of being cleared,
+ * and the open set is a reusable binary heap keyed by f-score, so a search does not
+ * allocate once the heap has grown to its working size.
+ */
+public class Pathfinding {
+    public enum Mode {
+        ASTAR, BFS
+    }
+
+    public static final int NO_PATH = -1;
+
+    private final TileGrid tiles;
+    private final int wallCode;
+    private final int width;
+    private final int height;
+    private final int[] stamp;   // generation in which g and parent were written
+    private final int[] closed;  // generation in which the cell was expanded
+    private final int[] g;       // cost from the start
+    private final int[] parent;  // previous cell on the best known path
+    private final int[] queue;   // FIFO queue of the breadth first search
+    private final IntMinHeap open;
+    private int generation;
 
-public class Pathfinding implements Serializable {
-    private TETile[][] tiles;
-    public Pathfinding(TETile[][] tiles) {
+    public Pathfinding(TileGrid tiles) {
         this.tiles = tiles;
+        this.width = tiles.width();
+        this.height = tiles.height();
+        this.wallCode = tiles.code(Tileset.ELDENWALL);
+        int cells = width * height;
+        stamp = new int[cells];
+        closed = new int[cells];
+        g = new int[cells];
+        parent = new int[cells];
+        queue = new int[cells];
+        open = new IntMinHeap(64);
+        generation = 0;
+    }
+
+    /**
+     * Returns the packed cell of (x, y).
+     */
+    public int cell(int x, int y) {
+        return x * height + y;
+    }
+
+    /**
+     * Returns the x coordinate of a packed cell.
+     */
+    public int x(int cell) {
+        return cell / height;
+    }
+
+    /**
+     * Returns the y coordinate of a packed cell.
+     */
+    public int y(int cell) {
+        return cell % height;
     }
-    private static class Node {
-        Position position;
-        Node parent;
-        int g, f;
 
-        Node(Position position) {
-            this.position = position;
-            this.g = Integer.MAX_VALUE;
-            this.f = Integer.MAX_VALUE;
+    /**
+     * Returns the first cell to step on when walking from (sx, sy) to (tx, ty).
+     *
+     * @return the packed next cell, the start cell if it already is the goal,
+     * or {@code NO_PATH} if the goal cannot be reached
+     */
+    public int nextStep(int sx, int sy, int tx, int ty, Mode mode) {
+        int start = cell(sx, sy);
+        int goal = cell(tx, ty);
+        if (!search(start, goal, mode)) {
+            return NO_PATH;
+        }
+        int c = goal;
+        while (c != start && parent[c] != start) {
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /**
+     * Finds a path from (sx, sy) to (tx, ty) and writes its cells, excluding the start
+     * and including the goal, into out. If out is too short only the first
+     * {@code out.length} steps are written.
+     *
+     * @return the length of the full path, or {@code NO_PATH} if the goal cannot be reached
+     */
+    public int findPath(int sx, int sy, int tx, int ty, Mode mode, int[] out) {
+        int start = cell(sx, sy);
+        int goal = cell(tx, ty);
+        if (!search(start, goal, mode)) {
+            return NO_PATH;
+        }
+        int length = g[goal];
+        int i = length - 1;
+        for (int c = goal; c != start; c = parent[c], i--) {
+            if (i < out.length) {
+                out[i] = c;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Runs the search and leaves g and parent filled in for every reached cell.
+     *
+     * @return {@code true} if the goal was reached
+     */
+    private boolean search(int start, int goal, Mode mode) {
+        if (!isWalkable(start) || !isWalkable(goal)) {
+            return false;
+        }
+        nextGeneration();
+        visit(start, start, 0);
+        if (start == goal) {
+            return true;
         }
+        return mode == Mode.BFS ? breadthFirst(start, goal) : aStar(start, goal);
+    }
+
+    private boolean aStar(int start, int goal) {
+        int gx = x(goal);
+        int gy = y(goal);
+        open.clear();
+        open.add(start, heuristic(start, gx, gy));
+        while (!open.isEmpty()) {
+            int c = open.poll();
+            if (closed[c] == generation) {
+                continue;
+            }
+            if (c == goal) {
+                return true;
+            }
+            closed[c] = generation;
+            int cx = x(c);
+            int cy = y(c);
+            int ng = g[c] + 1;
+            if (cx + 1 < width) {
+                relax(c + height, c, ng, gx, gy);
+            }
+            if (cx > 0) {
+                relax(c - height, c, ng, gx, gy);
+            }
+            if (cy + 1 < height) {
+                relax(c + 1, c, ng, gx, gy);
+            }
+            if (cy > 0) {
+                relax(c - 1, c, ng, gx, gy);
+            }
+        }
+        return false;
+    }
+
+    private void relax(int n, int from, int ng, int gx, int gy) {
+        if (closed[n] == generation || !isWalkable(n)) {
+            return;
+        }
+        if (stamp[n] != generation || ng < g[n]) {
+            visit(n, from, ng);
+            open.add(n, ng + heuristic(n, gx, gy));
+        }
+    }
+
+    private boolean breadthFirst(int start, int goal) {
+        int head = 0;
+        int tail = 0;
+        queue[tail++] = start;
+        while (head < tail) {
+            int c = queue[head++];
+            int cx = x(c);
+            int cy = y(c);
+            int ng = g[c] + 1;
+            for (int k = 0; k < 4; k++) {
+                int n;
+                if (k == 0 && cx + 1 < width) {
+                    n = c + height;
+                } else if (k == 1 && cx > 0) {
+                    n = c - height;
+                } else if (k == 2 && cy + 1 < height) {
+                    n = c + 1;
+                } else if (k == 3 && cy > 0) {
+                    n = c - 1;
+                } else {
+                    continue;
+                }
+                if (stamp[n] == generation || !isWalkable(n)) {
+                    continue;
+                }
+                visit(n, c, ng);
+                if (n == goal) {
+                    return true;
+                }
+                queue[tail++] = n;
+            }
+        }
+        return false;
+    }
+
+    private void visit(int c, int from, int cost) {
+        stamp[c] = generation;
+        g[c] = cost;
+        parent[c] = from;
+    }
+
+    private int heuristic(int c, int gx, int gy) {
+        return Math.abs(x(c) - gx) + Math.abs(y(c) - gy);
+    }
+
+    private boolean isWalkable(int c) {
+        return tiles.codeAt(c) != wallCode;
+    }
 
-        Node(Position position, Node parent, int g, int h) {
-            this.position = position;
-            this.parent = parent;
-            this.g = g;
-            this.f = g + h;
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            Arrays.fill(closed, 0);
+            generation = 1;
         }
     }
 }
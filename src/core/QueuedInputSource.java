@@ -0,0 +1,83 @@
+package core;
+
+import java.awt.KeyEventDispatcher;
+import java.awt.KeyboardFocusManager;
+import java.awt.event.KeyEvent;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Allows interacting with the keyboard inputs without spinning. Every key typed in the
+ * application is put on a queue by an AWT KeyEventDispatcher, and getNextKey blocks on
+ * that queue, so a thread waiting for a key uses no CPU. The typed keys are consumed
+ * here and no longer reach StdDraw, whose own list of typed keys nothing reads and would
+ * otherwise grow for the whole session; presses and releases still reach it.
+ *
+ * Besides getNextKey, which waits as long as it takes, poll returns at once and
+ * poll(timeout) waits at most timeout, for a game loop that has other work to do.
+ */
+public class QueuedInputSource implements InputSource {
+    /** Returned by poll when no key was typed. */
+    public static final char NO_KEY = 0;
+
+    private final BlockingQueue<Character> keys = new LinkedBlockingQueue<>();
+    private final KeyEventDispatcher dispatcher = this::dispatch;
+
+    public QueuedInputSource() {
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().addKeyEventDispatcher(dispatcher);
+    }
+
+    private boolean dispatch(KeyEvent e) {
+        if (e.getID() != KeyEvent.KEY_TYPED) {
+            return false;
+        }
+        if (e.getKeyChar() != KeyEvent.CHAR_UNDEFINED) {
+            keys.offer(Character.toUpperCase(e.getKeyChar()));
+        }
+        return true;
+    }
+
+    @Override
+    public char getNextKey() {
+        try {
+            return keys.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return NO_KEY;
+        }
+    }
+
+    /**
+     * Returns the next key if one was typed, or NO_KEY without waiting.
+     */
+    public char poll() {
+        Character key = keys.poll();
+        return key == null ? NO_KEY : key;
+    }
+
+    /**
+     * Returns the next key, waiting at most timeout for one to be typed, or NO_KEY.
+     */
+    public char poll(long timeout, TimeUnit unit) {
+        try {
+            Character key = keys.poll(timeout, unit);
+            return key == null ? NO_KEY : key;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return NO_KEY;
+        }
+    }
+
+    @Override
+    public boolean possibleNextInput() {
+        return true;
+    }
+
+    /**
+     * Stops listening for keys.
+     */
+    public void close() {
+        KeyboardFocusManager.getCurrentKeyboardFocusManager().removeKeyEventDispatcher(dispatcher);
+    }
+}
@@ -0,0 +1,135 @@
+package core;
+
+import tileengine.TileGrid;
+
+import java.util.Arrays;
+
+/**
+ * Labels the 4-connected regions of a TileGrid, either the regions made of one tile or
+ * the regions made of every tile but one. Each cell of a region gets the same label,
+ * numbered from 1 in index order; cells outside every region get {@code NONE}.
+ *
+ * Labelling takes two passes over the grid and no recursion. The first pass gives each
+ * cell the label of its left or lower neighbour, or a new label if neither is in a
+ * region, and records in a union-find when both neighbours carry different labels. The
+ * second pass replaces every label with the final number of its union-find root.
+ */
+class RegionLabels {
+    static final int NONE = 0;
+
+    private final int width;
+    private final int height;
+    private final int[] labels;
+    private int[] sizes;
+    private int count;
+
+    /**
+     * Labels the regions of grid made of cells whose code is code (matching), or whose
+     * code is anything but code (not matching).
+     *
+     * @param grid     the world tiles
+     * @param code     the palette code that decides which cells are in a region
+     * @param matching whether region cells have that code or any other
+     */
+    RegionLabels(TileGrid grid, int code, boolean matching) {
+        width = grid.width();
+        height = grid.height();
+        labels = new int[width * height];
+        int[] parent = new int[64];
+        int provisional = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if ((grid.codeAt(i) == code) != matching) {
+                continue;
+            }
+            int left = i >= height ? labels[i - height] : NONE;
+            int down = i % height > 0 ? labels[i - 1] : NONE;
+            if (left == NONE && down == NONE) {
+                provisional++;
+                if (provisional == parent.length) {
+                    parent = Arrays.copyOf(parent, parent.length * 2);
+                }
+                parent[provisional] = provisional;
+                labels[i] = provisional;
+            } else if (down == NONE) {
+                labels[i] = left;
+            } else {
+                labels[i] = down;
+                if (left != NONE && left != down) {
+                    union(parent, left, down);
+                }
+            }
+        }
+        int[] number = new int[provisional + 1];
+        sizes = new int[16];
+        count = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == NONE) {
+                continue;
+            }
+            int root = find(parent, labels[i]);
+            if (number[root] == NONE) {
+                count++;
+                if (count == sizes.length) {
+                    sizes = Arrays.copyOf(sizes, count * 2);
+                }
+                number[root] = count;
+            }
+            labels[i] = number[root];
+            sizes[labels[i]]++;
+        }
+    }
+
+    private static int find(int[] parent, int a) {
+        while (parent[a] != a) {
+            parent[a] = parent[parent[a]];
+            a = parent[a];
+        }
+        return a;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int ra = find(parent, a);
+        int rb = find(parent, b);
+        if (ra < rb) {
+            parent[rb] = ra;
+        } else if (rb < ra) {
+            parent[ra] = rb;
+        }
+    }
+
+    /**
+     * Returns the label of the cell at index i, or {@code NONE}.
+     */
+    int labelAt(int i) {
+        return labels[i];
+    }
+
+    /**
+     * Returns the label of the cell (x, y), or {@code NONE}.
+     */
+    int label(int x, int y) {
+        return labels[x * height + y];
+    }
+
+    /**
+     * Returns the number of regions. Labels run from 1 to count.
+     */
+    int count() {
+        return count;
+    }
+
+    /**
+     * Returns the number of cells with the given label.
+     */
+    int size(int label) {
+        return sizes[label];
+    }
+
+    /**
+     * Returns whether (x1, y1) and (x2, y2) lie in the same region.
+     */
+    boolean connected(int x1, int y1, int x2, int y2) {
+        int a = label(x1, y1);
+        return a != NONE && a == label(x2, y2);
+    }
+}
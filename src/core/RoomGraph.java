@@ -0,0 +1,607 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A two level map of the world for long walks, in the manner of HPA*: the rooms and
+ * hallways of the BSP tree are the nodes of a small graph, and the cells where two of
+ * them touch are its portals. A walk from one room to another is first planned over
+ * the portals, and only the leg inside the room the walker is in is searched tile by
+ * tile.
+ *
+ * The nodes are the 4-connected pieces of walkable cells of each room and hallway.
+ * A walkable cell is given to the first room, or else the first hallway, whose
+ * rectangle holds it; cells outside every rectangle, which post-processing can leave,
+ * join the nearest one. Each pair of touching nodes gets one entrance, a pair of cells
+ * across the middle of their shared border, whose cells are the portals. The walking
+ * distance from each portal to every cell of its node is found once, when the graph
+ * is built, at one int per cell for each portal of the cell's node.
+ *
+ * A walk between two nodes is planned as in HPA*, with the start and the goal joined
+ * to the portals of their nodes by those walking distances. The walks from one portal
+ * to every portal of a node are found by Dijkstra over the portals and kept in an LRU
+ * cache, and the walk chosen is the one with the least start-to-portal,
+ * portal-to-portal and portal-to-goal distance. Walls do not change once a world is
+ * generated, so neither the graph nor the cache ever goes stale. A walk found this way
+ * need not be the shortest one: it crosses each border through its middle, and a walk
+ * between two cells of one node stays inside it.
+ *
+ * Cells are packed into a single int as {@code x * height + y}, as in Pathfinding.
+ */
+public class RoomGraph {
+    public static final int NO_PATH = -1;
+    private static final int NONE = -1;
+    private static final int UNASSIGNED = -2;
+    private static final int CACHE_SIZE = 4096;
+    private static final int[] NO_ROUTE = new int[0];
+
+    private final TileGrid tiles;
+    private final int wallCode;
+    private final int width;
+    private final int height;
+    private final int[] node;         // node of each cell, or NONE for walls
+    private final int[] local;        // number of each cell within its node
+    private final int[] nodeSize;     // cells of each node
+    private final List<Room> areas;   // room or hallway of each area index
+    private final int[] nodeArea;     // area index of each node, or NONE
+    private int nodeCount;
+    private final int[] portalCell;   // cell of each portal; portals 2e and 2e + 1
+                                      // are the two sides of entrance e
+    private final int[] nodeStart;    // the portals of node n are nodePortals[nodeStart[n]
+    private final int[] nodePortals;  // .. nodeStart[n + 1]), in order
+    private final int[] slot;         // position of each portal in its node's list
+    private final int[] costStart;    // start of each node's portal-to-portal cost table
+    private final int[] cost;         // cost[costStart[n] + i * m + j] is the walk from
+                                      // portal i to portal j of node n, m its portal count
+    private final int[] fieldStart;   // field[fieldStart[p] + local[c]] is the walk from
+    private final int[] field;        // portal p to cell c of its node
+    private final Map<Long, Routes> cache;
+    // scratch for the searches
+    private final int[] stamp;
+    private final int[] dist;
+    private final int[] parent;
+    private final int[] queue;
+    private final int[] portalStamp;
+    private final int[] portalDist;
+    private final int[] portalParent;
+    private final IntMinHeap open;
+    private int generation;
+
+    /**
+     * Builds the graph of tiles, whose rooms and hallways are given.
+     */
+    public RoomGraph(TileGrid tiles, List<Room> rooms, List<Room> hallways) {
+        this.tiles = tiles;
+        this.width = tiles.width();
+        this.height = tiles.height();
+        this.wallCode = tiles.code(Tileset.ELDENWALL);
+        int cells = width * height;
+        stamp = new int[cells];
+        dist = new int[cells];
+        parent = new int[cells];
+        queue = new int[cells];
+        areas = new ArrayList<>(rooms);
+        areas.addAll(hallways);
+        int[] area = assignAreas();
+        node = new int[cells];
+        local = new int[cells];
+        nodeSize = new int[cells];
+        nodeArea = new int[cells];
+        splitNodes(area);
+
+        int[] entrances = findEntrances();
+        portalCell = entrances;
+        int portals = entrances.length;
+        nodeStart = new int[nodeCount + 1];
+        nodePortals = new int[portals];
+        slot = new int[portals];
+        for (int p = 0; p < portals; p++) {
+            nodeStart[node[portalCell[p]] + 1]++;
+        }
+        for (int n = 0; n < nodeCount; n++) {
+            nodeStart[n + 1] += nodeStart[n];
+        }
+        int[] fill = Arrays.copyOf(nodeStart, nodeCount);
+        for (int p = 0; p < portals; p++) {
+            int n = node[portalCell[p]];
+            slot[p] = fill[n] - nodeStart[n];
+            nodePortals[fill[n]++] = p;
+        }
+        costStart = new int[nodeCount + 1];
+        for (int n = 0; n < nodeCount; n++) {
+            int m = nodeStart[n + 1] - nodeStart[n];
+            costStart[n + 1] = costStart[n] + m * m;
+        }
+        cost = new int[costStart[nodeCount]];
+        fieldStart = new int[portals + 1];
+        for (int p = 0; p < portals; p++) {
+            fieldStart[p + 1] = fieldStart[p] + nodeSize[node[portalCell[p]]];
+        }
+        field = new int[fieldStart[portals]];
+        for (int p = 0; p < portals; p++) {
+            fillCosts(p);
+        }
+        portalStamp = new int[portals];
+        portalDist = new int[portals];
+        portalParent = new int[portals];
+        open = new IntMinHeap(64);
+        cache = new LinkedHashMap<>(256, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Routes> eldest) {
+                return size() > CACHE_SIZE;
+            }
+        };
+    }
+
+    /**
+     * Returns the packed cell of (x, y).
+     */
+    public int cell(int x, int y) {
+        return x * height + y;
+    }
+
+    public int x(int cell) {
+        return cell / height;
+    }
+
+    public int y(int cell) {
+        return cell % height;
+    }
+
+    public int nodeCount() {
+        return nodeCount;
+    }
+
+    /** Returns the number of portals, two per entrance. */
+    public int portalCount() {
+        return portalCell.length;
+    }
+
+    /**
+     * Returns the node (x, y) is in, or NO_PATH for a wall.
+     */
+    public int node(int x, int y) {
+        return node[cell(x, y)];
+    }
+
+    /**
+     * Returns the room or hallway node n is a piece of, or null for cells outside every
+     * room and hallway that had no room or hallway next to them.
+     */
+    public Room room(int n) {
+        return nodeArea[n] == NONE ? null : areas.get(nodeArea[n]);
+    }
+
+    /**
+     * Returns the first cell to step on when walking from (sx, sy) to (tx, ty): inside
+     * one node the next cell of a shortest walk, and otherwise the next cell towards
+     * the first portal of the planned route.
+     *
+     * @return the packed next cell, the start cell if it already is the goal,
+     * or {@code NO_PATH} if the goal cannot be reached
+     */
+    public int nextStep(int sx, int sy, int tx, int ty) {
+        int start = cell(sx, sy);
+        int goal = cell(tx, ty);
+        int a = node[start];
+        int b = node[goal];
+        if (a == NONE || b == NONE) {
+            return NO_PATH;
+        }
+        if (start == goal) {
+            return start;
+        }
+        if (a != b) {
+            int[] route = route(start, goal);
+            if (route == NO_ROUTE) {
+                return NO_PATH;
+            }
+            if (start == portalCell[route[0]]) {
+                return portalCell[route[0] ^ 1];
+            }
+            return downhill(route[0], start);
+        }
+        refine(start, goal);
+        int c = goal;
+        while (parent[c] != start) {
+            c = parent[c];
+        }
+        return c;
+    }
+
+    /**
+     * Finds a walk from (sx, sy) to (tx, ty) along the planned route and writes its
+     * cells, excluding the start and including the goal, into out. If out is too short
+     * only the first {@code out.length} steps are written.
+     *
+     * @return the length of the whole walk, or {@code NO_PATH} if the goal cannot be
+     * reached
+     */
+    public int findPath(int sx, int sy, int tx, int ty, int[] out) {
+        int start = cell(sx, sy);
+        int goal = cell(tx, ty);
+        int a = node[start];
+        int b = node[goal];
+        if (a == NONE || b == NONE) {
+            return NO_PATH;
+        }
+        int[] route = a == b ? NO_ROUTE : route(start, goal);
+        if (a != b && route == NO_ROUTE) {
+            return NO_PATH;
+        }
+        int length = 0;
+        int from = start;
+        for (int exit : route) {
+            length = appendLegTo(exit, from, out, length);
+            if (length < out.length) {
+                out[length] = portalCell[exit ^ 1];
+            }
+            length++;
+            from = portalCell[exit ^ 1];
+        }
+        return appendLeg(from, goal, out, length);
+    }
+
+    /**
+     * Returns the portals to leave by, in order, on the way from start to goal, which
+     * are in different nodes, or NO_ROUTE if there is no way. Each portal p is left for
+     * its partner p ^ 1.
+     */
+    private int[] route(int start, int goal) {
+        int a = node[start];
+        int b = node[goal];
+        int m = nodeStart[b + 1] - nodeStart[b];
+        int[] best = NO_ROUTE;
+        int bestLength = Integer.MAX_VALUE;
+        for (int i = nodeStart[a]; i < nodeStart[a + 1]; i++) {
+            int p = nodePortals[i];
+            Routes routes = routes(p, b);
+            for (int j = 0; j < m; j++) {
+                if (routes.length[j] == NO_PATH) {
+                    continue;
+                }
+                int q = nodePortals[nodeStart[b] + j];
+                int length = walk(p, start) + routes.length[j] + walk(q, goal);
+                if (length < bestLength) {
+                    best = routes.exits[j];
+                    bestLength = length;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Returns the walks from portal p to every portal of node b, from the cache or by
+     * searching for them.
+     */
+    private Routes routes(int p, int b) {
+        long key = (long) p * nodeCount + b;
+        Routes routes = cache.get(key);
+        if (routes == null) {
+            routes = searchRoutes(p, b);
+            cache.put(key, routes);
+        }
+        return routes;
+    }
+
+    /**
+     * Dijkstra over the portals from source, until every portal of node b is reached.
+     */
+    private Routes searchRoutes(int source, int b) {
+        nextGeneration();
+        open.clear();
+        portalStamp[source] = generation;
+        portalDist[source] = 0;
+        portalParent[source] = NONE;
+        open.add(source, 0);
+        int m = nodeStart[b + 1] - nodeStart[b];
+        int left = m;
+        while (!open.isEmpty() && left > 0) {
+            int d = open.peekKey();
+            int p = open.poll();
+            if (d > portalDist[p]) {
+                continue;
+            }
+            int n = node[portalCell[p]];
+            if (n == b) {
+                left--;
+            }
+            relaxPortal(p ^ 1, p, d + 1);
+            int k = nodeStart[n + 1] - nodeStart[n];
+            int row = costStart[n] + slot[p] * k;
+            for (int j = 0; j < k; j++) {
+                relaxPortal(nodePortals[nodeStart[n] + j], p, d + cost[row + j]);
+            }
+        }
+        Routes routes = new Routes(m);
+        for (int j = 0; j < m; j++) {
+            int q = nodePortals[nodeStart[b] + j];
+            if (portalStamp[q] != generation) {
+                routes.length[j] = NO_PATH;
+                routes.exits[j] = NO_ROUTE;
+                continue;
+            }
+            routes.length[j] = portalDist[q];
+            int exits = 0;
+            for (int p = q; portalParent[p] != NONE; p = portalParent[p]) {
+                if (portalParent[p] == (p ^ 1)) {
+                    exits++;
+                }
+            }
+            int[] route = new int[exits];
+            for (int p = q; portalParent[p] != NONE; p = portalParent[p]) {
+                if (portalParent[p] == (p ^ 1)) {
+                    route[--exits] = p ^ 1;
+                }
+            }
+            routes.exits[j] = route;
+        }
+        return routes;
+    }
+
+    private void relaxPortal(int p, int from, int d) {
+        if (portalStamp[p] != generation || d < portalDist[p]) {
+            portalStamp[p] = generation;
+            portalDist[p] = d;
+            portalParent[p] = from;
+            open.add(p, d);
+        }
+    }
+
+    /**
+     * Returns the walk from portal p to cell c of its node.
+     */
+    private int walk(int p, int c) {
+        return field[fieldStart[p] + local[c]];
+    }
+
+    /**
+     * Returns the first neighbour of c, in the order of neighbour(), that is one step
+     * nearer to portal p, which c's node holds and c is not.
+     */
+    private int downhill(int p, int c) {
+        int d = walk(p, c);
+        for (int k = 0; k < 4; k++) {
+            int m = neighbour(c, k);
+            if (m != NONE && node[m] == node[c] && walk(p, m) == d - 1) {
+                return m;
+            }
+        }
+        throw new IllegalStateException("no step towards portal " + p);
+    }
+
+    /**
+     * Writes the cells of the walk from start to portal p, which start's node holds,
+     * to out from index length on, each cell the downhill() of the one before.
+     * @return length plus the number of steps of the walk
+     */
+    private int appendLegTo(int p, int start, int[] out, int length) {
+        for (int c = start; c != portalCell[p]; length++) {
+            c = downhill(p, c);
+            if (length < out.length) {
+                out[length] = c;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the cells of a shortest walk inside one node from start to goal to out
+     * from index length on.
+     * @return length plus the number of steps of the walk
+     */
+    private int appendLeg(int start, int goal, int[] out, int length) {
+        refine(start, goal);
+        int steps = dist[goal];
+        int i = length + steps - 1;
+        for (int c = goal; c != start; c = parent[c], i--) {
+            if (i < out.length) {
+                out[i] = c;
+            }
+        }
+        return length + steps;
+    }
+
+    /**
+     * Breadth first search from start that stays inside start's node, until goal is
+     * reached, or over the whole node if goal is NONE. Leaves dist and parent filled in
+     * for the reached cells.
+     */
+    private void refine(int start, int goal) {
+        nextGeneration();
+        int n = node[start];
+        int head = 0;
+        int tail = 0;
+        visit(start, start, 0);
+        queue[tail++] = start;
+        while (head < tail && (goal == NONE || stamp[goal] != generation)) {
+            int c = queue[head++];
+            for (int k = 0; k < 4; k++) {
+                int m = neighbour(c, k);
+                if (m != NONE && node[m] == n && stamp[m] != generation) {
+                    visit(m, c, dist[c] + 1);
+                    queue[tail++] = m;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the k-th neighbour of c, right, left, up and down for k = 0 to 3, or NONE
+     * past the edge.
+     */
+    private int neighbour(int c, int k) {
+        int cx = c / height;
+        int cy = c % height;
+        switch (k) {
+            case 0: return cx + 1 < width ? c + height : NONE;
+            case 1: return cx > 0 ? c - height : NONE;
+            case 2: return cy + 1 < height ? c + 1 : NONE;
+            default: return cy > 0 ? c - 1 : NONE;
+        }
+    }
+
+    private void visit(int c, int from, int d) {
+        stamp[c] = generation;
+        dist[c] = d;
+        parent[c] = from;
+    }
+
+    /**
+     * Returns the area index of every walkable cell, NONE for walls: the first room or
+     * hallway holding it, or the area of the nearest such cell.
+     */
+    private int[] assignAreas() {
+        int[] area = new int[width * height];
+        for (int c = 0; c < area.length; c++) {
+            area[c] = tiles.codeAt(c) == wallCode ? NONE : UNASSIGNED;
+        }
+        int tail = 0;
+        for (int i = 0; i < areas.size(); i++) {
+            Room r = areas.get(i);
+            int x1 = Math.min(width, r.xOffset() + r.width());
+            int y1 = Math.min(height, r.yOffset() + r.height());
+            for (int x = Math.max(0, r.xOffset()); x < x1; x++) {
+                for (int y = Math.max(0, r.yOffset()); y < y1; y++) {
+                    int c = cell(x, y);
+                    if (area[c] == UNASSIGNED) {
+                        area[c] = i;
+                        queue[tail++] = c;
+                    }
+                }
+            }
+        }
+        for (int head = 0; head < tail; head++) {
+            int c = queue[head];
+            for (int k = 0; k < 4; k++) {
+                int n = neighbour(c, k);
+                if (n != NONE && area[n] == UNASSIGNED) {
+                    area[n] = area[c];
+                    queue[tail++] = n;
+                }
+            }
+        }
+        for (int c = 0; c < area.length; c++) {
+            if (area[c] == UNASSIGNED) {
+                area[c] = areas.size();   // walkable, but out of reach of every area
+            }
+        }
+        return area;
+    }
+
+    /**
+     * Numbers the 4-connected pieces of cells of one area as the nodes.
+     */
+    private void splitNodes(int[] area) {
+        Arrays.fill(node, NONE);
+        for (int s = 0; s < node.length; s++) {
+            if (area[s] == NONE || node[s] != NONE) {
+                continue;
+            }
+            int n = nodeCount++;
+            nodeArea[n] = area[s] < areas.size() ? area[s] : NONE;
+            node[s] = n;
+            local[s] = 0;
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = s;
+            while (head < tail) {
+                int c = queue[head++];
+                for (int k = 0; k < 4; k++) {
+                    int m = neighbour(c, k);
+                    if (m != NONE && node[m] == NONE && area[m] == area[s]) {
+                        node[m] = n;
+                        local[m] = tail;
+                        queue[tail++] = m;
+                    }
+                }
+            }
+            nodeSize[n] = tail;
+        }
+    }
+
+    /**
+     * Returns the portal cells of one entrance per pair of touching nodes: of all the
+     * pairs of neighbouring cells across their border, the middle one in index order.
+     */
+    private int[] findEntrances() {
+        Map<Long, List<int[]>> borders = new HashMap<>();
+        List<Long> order = new ArrayList<>();
+        for (int c = 0; c < node.length; c++) {
+            if (node[c] == NONE) {
+                continue;
+            }
+            for (int k = 0; k < 4; k += 2) {   // right and up, so each pair is seen once
+                int m = neighbour(c, k);
+                if (m == NONE || node[m] == NONE || node[m] == node[c]) {
+                    continue;
+                }
+                int lo = Math.min(node[c], node[m]);
+                int hi = Math.max(node[c], node[m]);
+                long key = (long) lo * nodeCount + hi;
+                List<int[]> pairs = borders.get(key);
+                if (pairs == null) {
+                    pairs = new ArrayList<>();
+                    borders.put(key, pairs);
+                    order.add(key);
+                }
+                pairs.add(node[c] == lo ? new int[] {c, m} : new int[] {m, c});
+            }
+        }
+        int[] cells = new int[2 * order.size()];
+        for (int e = 0; e < order.size(); e++) {
+            List<int[]> pairs = borders.get(order.get(e));
+            int[] middle = pairs.get(pairs.size() / 2);
+            cells[2 * e] = middle[0];
+            cells[2 * e + 1] = middle[1];
+        }
+        return cells;
+    }
+
+    /**
+     * Fills in the walks from portal p to every cell and every portal of its node.
+     */
+    private void fillCosts(int p) {
+        int n = node[portalCell[p]];
+        int m = nodeStart[n + 1] - nodeStart[n];
+        int row = costStart[n] + slot[p] * m;
+        refine(portalCell[p], NONE);
+        for (int i = 0; i < nodeSize[n]; i++) {
+            field[fieldStart[p] + local[queue[i]]] = dist[queue[i]];
+        }
+        for (int j = 0; j < m; j++) {
+            cost[row + j] = dist[portalCell[nodePortals[nodeStart[n] + j]]];
+        }
+    }
+
+    private void nextGeneration() {
+        generation++;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(stamp, 0);
+            Arrays.fill(portalStamp, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * The walks from one portal to each portal of one node, by the node's portal order.
+     */
+    private static final class Routes {
+        final int[] length;   // steps of the walk to portal j, or NO_PATH
+        final int[][] exits;  // portals to leave by on the way to portal j, in order
+
+        Routes(int portals) {
+            length = new int[portals];
+            exits = new int[portals][];
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package core;
+
+import tileengine.TileGrid;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stamps rooms and hallways into a TileGrid, either one after the other on the calling
+ * thread or in parallel over the subtrees of a BSPTree.
+ *
+ * A room is a ring of wall around floor. A hallway (a room one tile wide or high) is
+ * floor with wall on every tile next to it. Every write joins the cell with the new
+ * tile on the order backdrop < wall < floor: floor always goes in, and wall goes in
+ * unless the cell already holds floor. The grid that comes out therefore does not
+ * depend on the order the rooms are stamped in.
+ *
+ * In parallel each task owns a rectangle of the grid, the whole grid for the root of
+ * the tree. A split leaf gives the part of its rectangle before the split line to its
+ * left child and the rest to its right child, so no two tasks own the same cell. A
+ * task stamps every room that reaches into its rectangle, clipped to the rectangle; a
+ * room across a split line is stamped half by each side. Since the writes join, the
+ * two halves meet at the seam exactly as they would in one sweep, and the same seed
+ * gives the same world in both modes.
+ */
+class RoomStamper {
+    private static final int MIN_TASK_AREA = 64 * 64;
+
+    private final TileGrid grid;
+    private final int floorCode;
+    private final int wallCode;
+
+    RoomStamper(TileGrid grid, int floorCode, int wallCode) {
+        this.grid = grid;
+        this.floorCode = floorCode;
+        this.wallCode = wallCode;
+    }
+
+    /**
+     * Stamps every room of rooms, in order, on the calling thread.
+     */
+    void stamp(List<Room> rooms) {
+        for (Room room : rooms) {
+            stamp(room, 0, 0, grid.width(), grid.height());
+        }
+    }
+
+    /**
+     * Stamps every room of rooms, splitting the work over the subtrees of bsp on the
+     * common ForkJoinPool. Returns when all of it is in the grid.
+     */
+    void stampParallel(BSPTree bsp, List<Room> rooms) {
+        ForkJoinPool.commonPool().invoke(
+                new SubtreeTask(bsp.root, 0, 0, grid.width(), grid.height(), rooms));
+    }
+
+    /**
+     * Stamps a room or hallway, writing only to the cells in [x0, x1) x [y0, y1).
+     */
+    private void stamp(Room room, int x0, int y0, int x1, int y1) {
+        int w = room.width();
+        int h = room.height();
+        if (w == 1 || h == 1) {
+            stampHallway(room, x0, y0, x1, y1);
+            return;
+        }
+        if (w <= 1 || h <= 1) {
+            return;
+        }
+        int left = room.xOffset();
+        int bottom = room.yOffset();
+        int right = left + w - 1;
+        int top = bottom + h - 1;
+        for (int x = Math.max(left, x0); x <= Math.min(right, x1 - 1); x++) {
+            for (int y = Math.max(bottom, y0); y <= Math.min(top, y1 - 1); y++) {
+                boolean edge = x == left || x == right || y == bottom || y == top;
+                join(grid.index(x, y), edge ? wallCode : floorCode);
+            }
+        }
+    }
+
+    /**
+     * Stamps the floor of a hallway and the walls next to it. Only the part of the
+     * hallway inside the grid counts, so no wall is put next to a tile that was cut off.
+     */
+    private void stampHallway(Room hallway, int x0, int y0, int x1, int y1) {
+        int left = Math.max(hallway.xOffset(), 0);
+        int bottom = Math.max(hallway.yOffset(), 0);
+        int right = Math.min(hallway.xOffset() + hallway.width(), grid.width()) - 1;
+        int top = Math.min(hallway.yOffset() + hallway.height(), grid.height()) - 1;
+        if (left > right || bottom > top) {
+            return;
+        }
+        for (int x = Math.max(left - 1, x0); x <= Math.min(right + 1, x1 - 1); x++) {
+            boolean insideX = x >= left && x <= right;
+            for (int y = Math.max(bottom - 1, y0); y <= Math.min(top + 1, y1 - 1); y++) {
+                boolean insideY = y >= bottom && y <= top;
+                if (insideX && insideY) {
+                    join(grid.index(x, y), floorCode);
+                } else if (insideX || insideY) {
+                    join(grid.index(x, y), wallCode);
+                }
+            }
+        }
+    }
+
+    private void join(int i, int code) {
+        if (code != wallCode || grid.codeAt(i) != floorCode) {
+            grid.setCode(i, code);
+        }
+    }
+
+    /**
+     * Returns whether stamping room can write to a cell of [x0, x1) x [y0, y1).
+     */
+    private static boolean reaches(Room room, int x0, int y0, int x1, int y1) {
+        int w = room.width();
+        int h = room.height();
+        int halo = w == 1 || h == 1 ? 1 : 0;
+        return room.xOffset() - halo < x1 && room.xOffset() + w + halo > x0
+                && room.yOffset() - halo < y1 && room.yOffset() + h + halo > y0;
+    }
+
+    /**
+     * Stamps the rooms that reach into the rectangle owned by a subtree.
+     */
+    @SuppressWarnings("serial")
+    private class SubtreeTask extends RecursiveAction {
+        private final BSPTree.Leaf leaf;
+        private final int x0, y0, x1, y1;  // owned rectangle [x0, x1) x [y0, y1)
+        private final List<Room> rooms;
+
+        SubtreeTask(BSPTree.Leaf leaf, int x0, int y0, int x1, int y1, List<Room> rooms) {
+            this.leaf = leaf;
+            this.x0 = x0;
+            this.y0 = y0;
+            this.x1 = x1;
+            this.y1 = y1;
+            this.rooms = rooms;
+        }
+
+        @Override
+        protected void compute() {
+            if (leaf.left == null || (long) (x1 - x0) * (y1 - y0) < MIN_TASK_AREA) {
+                for (Room room : rooms) {
+                    stamp(room, x0, y0, x1, y1);
+                }
+                return;
+            }
+            SubtreeTask left;
+            SubtreeTask right;
+            if (leaf.direction == 0) {
+                int split = Math.max(x0, Math.min(x1, leaf.right.x));
+                left = child(leaf.left, x0, y0, split, y1);
+                right = child(leaf.right, split, y0, x1, y1);
+            } else {
+                int split = Math.max(y0, Math.min(y1, leaf.right.y));
+                left = child(leaf.left, x0, y0, x1, split);
+                right = child(leaf.right, x0, split, x1, y1);
+            }
+            invokeAll(left, right);
+        }
+
+        private SubtreeTask child(BSPTree.Leaf child, int cx0, int cy0, int cx1, int cy1) {
+            List<Room> reaching = new ArrayList<>();
+            for (Room room : rooms) {
+                if (reaches(room, cx0, cy0, cx1, cy1)) {
+                    reaching.add(room);
+                }
+            }
+            return new SubtreeTask(child, cx0, cy0, cx1, cy1, reaching);
+        }
+    }
+}
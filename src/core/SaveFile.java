@@ -0,0 +1,174 @@
+package core;
+
+import tileengine.TileGrid;
+import tileengine.Tileset;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The binary save file: a snapshot of a game followed by a journal of the keys typed
+ * since the snapshot was taken.
+ *
+ *   int     MAGIC, short VERSION
+ *   long    seed, int width, int height     the arguments World was generated with
+ *   boolean line of sight view
+ *   int     player x, y
+ *   long    seed and tick of the enemies' wander draws
+ *   int     enemy count, then x, y and wander cooldown of each enemy
+ *   int     delta count, then for each tile that differs from the generated world:
+ *           int cell (x * height + y of the grid), short index in Tileset.ALL
+ *   byte... journal, one game key per byte, up to the end of the file
+ *
+ * Loading regenerates the world from the seed, writes the delta into it, puts the
+ * player and enemies back and replays the journal, which is kept to JOURNAL_LIMIT
+ * keys. Its cost is one generation plus the size of the map, no matter how long the
+ * game has been played. Generation uses its random stream up during construction, so
+ * the only random state to store is that of the enemies, whose wander steps are drawn
+ * by tick under a seed of their own.
+ *
+ * The journal holds keys only, so it can be added to only while the enemies have not
+ * moved since the snapshot; Engine takes a new snapshot otherwise.
+ */
+final class SaveFile {
+    static final int JOURNAL_LIMIT = 4096;
+    private static final int MAGIC = 0x42594F57;   // "BYOW"
+    private static final short VERSION = 4;
+
+    private final long seed;
+    private final World world;
+    private final boolean lineOfSight;
+    private final String journal;
+
+    private SaveFile(long seed, World world, boolean lineOfSight, String journal) {
+        this.seed = seed;
+        this.world = world;
+        this.lineOfSight = lineOfSight;
+        this.journal = journal;
+    }
+
+    long seed() {
+        return seed;
+    }
+
+    /** The world as of the snapshot; the journal is not applied yet. */
+    World world() {
+        return world;
+    }
+
+    boolean lineOfSight() {
+        return lineOfSight;
+    }
+
+    /** The keys typed after the snapshot, in order. */
+    String journal() {
+        return journal;
+    }
+
+    /**
+     * Replaces file with a snapshot of world, which was generated as
+     * new World(seed, width, height), and an empty journal.
+     */
+    static void writeSnapshot(File file, long seed, int width, int height, World world,
+                              boolean lineOfSight) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(seed);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeBoolean(lineOfSight);
+            out.writeInt(world.getPlayer().x);
+            out.writeInt(world.getPlayer().y);
+            EnemyStore enemies = world.getEnemies();
+            out.writeLong(enemies.seed());
+            out.writeLong(enemies.tick());
+            out.writeInt(enemies.size());
+            for (int k = 0; k < enemies.size(); k++) {
+                out.writeInt(enemies.x(k));
+                out.writeInt(enemies.y(k));
+                out.writeInt(enemies.cooldown(k));
+            }
+            TileGrid grid = world.grid();
+            TileGrid generated = world.generatedGrid();
+            int cells = grid.width() * grid.height();
+            int count = 0;
+            for (int i = 0; i < cells; i++) {
+                if (grid.codeAt(i) != generated.codeAt(i)) {
+                    count++;
+                }
+            }
+            out.writeInt(count);
+            for (int i = 0; i < cells; i++) {
+                if (grid.codeAt(i) != generated.codeAt(i)) {
+                    out.writeInt(i);
+                    out.writeShort(Tileset.indexOf(grid.tile(grid.codeAt(i))));
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds keys to the end of the journal of file.
+     */
+    static void appendJournal(File file, CharSequence keys) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(keys.toString().getBytes(StandardCharsets.US_ASCII));
+        }
+    }
+
+    /**
+     * Reads file and rebuilds the world of its snapshot.
+     * @throws IOException if the file cannot be read or is not a save file
+     */
+    static SaveFile read(File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException(file + " is not a save file of this version");
+            }
+            long seed = in.readLong();
+            int width = in.readInt();
+            int height = in.readInt();
+            boolean lineOfSight = in.readBoolean();
+            Position player = new Position(in.readInt(), in.readInt());
+            long enemySeed = in.readLong();
+            long enemyTick = in.readLong();
+            int enemyCount = in.readInt();
+            if (enemyCount < 0) {
+                throw new IOException(file + " has a bad enemy count");
+            }
+            List<Position> enemies = new ArrayList<>(enemyCount);
+            int[] cooldowns = new int[enemyCount];
+            for (int k = 0; k < enemyCount; k++) {
+                enemies.add(new Position(in.readInt(), in.readInt()));
+                cooldowns[k] = in.readInt();
+            }
+            World world = new World(seed, width, height);
+            TileGrid grid = world.grid();
+            int count = in.readInt();
+            for (int k = 0; k < count; k++) {
+                int i = in.readInt();
+                int tile = in.readShort();
+                if (tile < 0 || tile >= Tileset.ALL.length || i < 0 || i >= grid.width() * grid.height()) {
+                    throw new IOException(file + " has a tile that is not in this world");
+                }
+                grid.setCode(i, grid.code(Tileset.ALL[tile]));
+            }
+            world.restore(player, enemies, cooldowns);
+            world.getEnemies().restoreClock(enemySeed, enemyTick);
+            String journal = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+            return new SaveFile(seed, world, lineOfSight, journal);
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package core;
+
+import tileengine.TileGrid;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs a chain of local rules over a TileGrid in a single sweep.
+ *
+ * Each stage is a {@link Stencil}: it sees a cell and its eight neighbours and returns
+ * the new code of the cell. A stage behaves exactly like a loop that visits x and then
+ * y and writes every result straight back into the grid, so neighbours it has already
+ * visited show their new codes and the rest still show their old ones. Every stage
+ * sees the finished output of the stage before it.
+ *
+ * A stage can name the one code its rule applies to; cells with any other code pass
+ * through that stage without a call to the rule.
+ *
+ * Instead of one full sweep per stage, stage k works one column behind stage k - 1.
+ * Each stage keeps its last three output columns in a ring, and the next stage reads
+ * its input from there, so the grid is read and written only once per run.
+ */
+class StencilPipeline {
+    static final int OUTSIDE = -1;
+    static final int ANY = -1;
+
+    /**
+     * A local rule over one cell and its eight neighbours.
+     */
+    interface Stencil {
+        /**
+         * Returns the new code of the centre cell of window.
+         */
+        int apply(Window window);
+    }
+
+    /**
+     * The neighbourhood of the cell a stencil is applied to. Neighbours outside the grid
+     * read as {@code OUTSIDE}. North is y + 1 and east is x + 1. Neighbours are read
+     * from the stage's columns on demand, so a rule only pays for what it looks at.
+     */
+    static final class Window {
+        private int height;
+        private int[] west;   // output of this stage, null on the west border
+        private int[] column; // input of this stage
+        private int[] east;   // input of this stage, null on the east border
+        private int[] south;  // output of this stage for the current column
+        int x;
+        int y;
+        int index;
+        int c;
+
+        int n() {
+            return y + 1 < height ? column[y + 1] : OUTSIDE;
+        }
+
+        int s() {
+            return y > 0 ? south[y - 1] : OUTSIDE;
+        }
+
+        int e() {
+            return east != null ? east[y] : OUTSIDE;
+        }
+
+        int w() {
+            return west != null ? west[y] : OUTSIDE;
+        }
+
+        int ne() {
+            return east != null && y + 1 < height ? east[y + 1] : OUTSIDE;
+        }
+
+        int nw() {
+            return west != null && y + 1 < height ? west[y + 1] : OUTSIDE;
+        }
+
+        int se() {
+            return east != null && y > 0 ? east[y - 1] : OUTSIDE;
+        }
+
+        int sw() {
+            return west != null && y > 0 ? west[y - 1] : OUTSIDE;
+        }
+    }
+
+    private final List<Stencil> stages = new ArrayList<>();
+    private final List<Integer> centres = new ArrayList<>();
+    private final List<Boolean> interiorOnly = new ArrayList<>();
+
+    /**
+     * Adds a stage to the end of the pipeline.
+     *
+     * @param stencil  the rule of the stage
+     * @param centre   the only code the rule changes, or {@code ANY}
+     * @param interior whether the rule skips the cells on the border of the grid
+     * @return this pipeline
+     */
+    StencilPipeline add(Stencil stencil, int centre, boolean interior) {
+        stages.add(stencil);
+        centres.add(centre);
+        interiorOnly.add(interior);
+        return this;
+    }
+
+    /**
+     * Runs every stage over grid and writes the result of the last stage back. Columns
+     * that no stage changed are not written.
+     */
+    void run(TileGrid grid) {
+        int width = grid.width();
+        int height = grid.height();
+        int stageCount = stages.size();
+        // ring[0] holds columns of the grid, ring[k + 1] the output of stage k
+        int[][][] ring = new int[stageCount + 1][3][height];
+        boolean[] changed = new boolean[width];
+        Window window = new Window();
+        load(grid, ring[0][0], 0);
+        for (int driver = 0; driver < width + stageCount - 1; driver++) {
+            if (driver + 1 < width) {
+                load(grid, ring[0][(driver + 1) % 3], driver + 1);
+            }
+            for (int k = 0; k < stageCount; k++) {
+                int x = driver - k;
+                if (x < 0 || x >= width) {
+                    continue;
+                }
+                int[] in = ring[k][x % 3];
+                int[] east = x + 1 < width ? ring[k][(x + 1) % 3] : null;
+                int[] west = x > 0 ? ring[k + 1][(x + 2) % 3] : null;
+                int[] out = ring[k + 1][x % 3];
+                changed[x] |= sweepColumn(stages.get(k), centres.get(k), interiorOnly.get(k),
+                        window, x, width, height, in, east, west, out);
+                if (k == stageCount - 1 && changed[x]) {
+                    store(grid, out, x);
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies stencil to column x and returns whether it changed any cell.
+     */
+    private static boolean sweepColumn(Stencil stencil, int centre, boolean interior, Window window,
+                                    int x, int width, int height, int[] in, int[] east,
+                                    int[] west, int[] out) {
+        boolean borderColumn = x == 0 || x == width - 1;
+        window.height = height;
+        window.west = west;
+        window.column = in;
+        window.east = east;
+        window.south = out;
+        window.x = x;
+        boolean changed = false;
+        System.arraycopy(in, 0, out, 0, height);
+        if (interior && borderColumn) {
+            return false;
+        }
+        int from = interior ? 1 : 0;
+        int to = interior ? height - 1 : height;
+        for (int y = from; y < to; y++) {
+            int c = in[y];
+            if (centre != ANY && c != centre) {
+                continue;
+            }
+            window.y = y;
+            window.index = x * height + y;
+            window.c = c;
+            out[y] = stencil.apply(window);
+            changed |= out[y] != c;
+        }
+        return changed;
+    }
+
+    private static void load(TileGrid grid, int[] column, int x) {
+        int base = x * column.length;
+        for (int y = 0; y < column.length; y++) {
+            column[y] = grid.codeAt(base + y);
+        }
+    }
+
+    private static void store(TileGrid grid, int[] column, int x) {
+        int base = x * column.length;
+        for (int y = 0; y < column.length; y++) {
+            if (grid.codeAt(base + y) != column[y]) {
+                grid.setCode(base + y, column[y]);
+            }
+        }
+    }
+}
@@ -23,6 +23,13 @@ public class StringInputSource implements InputSource {
         return ' ';
     }
 
+    /**
+     * Returns the index in the string of the next key.
+     */
+    int index() {
+        return index;
+    }
+
     @Override
     public boolean possibleNextInput() {
         if (input != null) {
@@ -2,32 +2,47 @@ package core;
 
 
 import tileengine.TETile;
+import tileengine.OccupancyGrid;
+import tileengine.TileGrid;
+import tileengine.WorldFile;
 import tileengine.Tileset;
 import utils.RandomUtils;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.SplittableRandom;
 
 
 public class World {
     private static final int LEAF_MIN = 15;
     private static final int LEAF_MAX = 30;
-    private static final String SAVE_FILE = "src/save_data.txt";
+    private static final long PLACEMENT_KEY = 0; // key of the placement stream
+    private static final String BOARD_FILE = "src/save_board.world";
     private Random random;     // random seed
-    private TETile[][] world;  // 2d world of TETiles
+    private TileGrid world;    // 2d world of TETiles, one byte per tile
+    private TileGrid generated; // world as generated, before anyone moved
+    private final int wallCode, floorCode, nothingCode; // palette codes of world
     private BSPTree bsp;       // BSPTree that stores rooms and hallways
     private Position player;   // Position of the player
     private Position treasure; // Position of the treasure
-    private List<Enemy> enemies;
+    private OccupancyGrid occupants; // the enemies, standing over world
+    private EnemyStore enemies;
     private int roomIndexPlayer, roomIndexTreasure;
-    private Pathfinding pathfinder;
+    private DistanceField playerField; // walking distance to the player
+    private RegionLabels walkableRegions; // regions of non-wall tiles, built on first use
+    private FieldOfView sight;         // what the player sees, built on first use
+    private RoomGraph roomGraph;       // rooms and hallways as a graph, built on first use
+    static final int SIGHT_RADIUS = 5;
     private static final int MIN_DISTANCE_FROM_PLAYER = 12; // Minimum tiles away from the player
 
     private static final int MIN_DISTANCE_FROM_ERDTREE = 75;
+    private static final int MAX_ENEMY_ROOM_DRAWS = 1000; // room draws per enemy before giving up
+    // x and y steps of each Engine.Direction, by ordinal
+    private static final int[] STEP_X = {0, 1, 0, -1};
+    private static final int[] STEP_Y = {1, 0, -1, 0};
 
 
 
@@ -42,284 +57,225 @@ public class World {
      * @param height
      */
     World(long seed, int width, int height) {
-        random = new Random(seed);
-        world = new TETile[width][height - 3];
-        initializeWorld();
-        int leafNum = RandomUtils.uniform(random, LEAF_MAX - LEAF_MIN + 1) + LEAF_MIN;
-        bsp = new BSPTree(width, height - 3, leafNum, random);
-        createPlayerAndTreasure();
-        createEnemies();
-        scatterTilesBackDrop();
-        generateWorld();
-        pathfinder = new Pathfinding(world);
+        this(seed, width, height, false);
     }
 
     /**
-     * A Initializer that add TETiles of NOTHING in world
+     * Constructor World with a choice of generation mode. In parallel mode the rooms
+     * and hallways are stamped over the BSPTree subtrees on the common ForkJoinPool;
+     * the world is the same as the one the sequential mode builds from the same seed.
+     * @param seed
+     * @param width
+     * @param height
+     * @param parallel whether to stamp rooms and hallways in parallel
      */
-    private void initializeWorld() {
-        for (int x = 0; x < world.length; x++) {
-            for (int y = 0; y < world[0].length; y++) {
-                world[x][y] = Tileset.NOTHING;
-            }
+    World(long seed, int width, int height, boolean parallel) {
+        this(seed, width, height, parallel, false);
+    }
+
+    /**
+     * Constructor World with a choice of random streams. With keyed streams every
+     * BSPTree leaf draws from its own stream, keyed by the seed and its path in the
+     * tree, and the placement of the player, treasure and enemies draws from a stream
+     * of its own. Keyed streams build a different world from the same seed than the
+     * shared stream, so saved games keep using the shared one.
+     * @param seed
+     * @param width
+     * @param height
+     * @param parallel whether to stamp rooms and hallways in parallel
+     * @param keyed whether to draw from keyed streams instead of one shared Random
+     */
+    World(long seed, int width, int height, boolean parallel, boolean keyed) {
+        world = new TileGrid(width, height - 3, Tileset.NOTHING);
+        wallCode = world.code(Tileset.ELDENWALL);
+        floorCode = world.code(Tileset.ASHEN_SKY);
+        nothingCode = world.code(Tileset.NOTHING);
+        if (keyed) {
+            SplittableRandom placement = RandomUtils.stream(seed, PLACEMENT_KEY);
+            int leafNum = RandomUtils.uniform(placement, LEAF_MAX - LEAF_MIN + 1) + LEAF_MIN;
+            random = new Random(placement.nextLong());
+            bsp = new BSPTree(width, height - 3, leafNum, seed);
+        } else {
+            random = new Random(seed);
+            int leafNum = RandomUtils.uniform(random, LEAF_MAX - LEAF_MIN + 1) + LEAF_MIN;
+            bsp = new BSPTree(width, height - 3, leafNum, random);
         }
+        createPlayerAndTreasure();
+        createEnemies();
+        scatterTilesBackDrop();
+        generateWorld(parallel);
+        generated = world.copy();
+        playerField = new DistanceField(world);
+        playerField.rebuild(player.x, player.y);
     }
 
     private void scatterTilesBackDrop() {
-        for (int x = 0; x < world.length; x++) {
-            for (int y = 0; y < world[0].length; y++) {
+        int rune = world.code(Tileset.RUNE);
+        for (int x = 0; x < world.width(); x++) {
+            for (int y = 0; y < world.height(); y++) {
                 if (random.nextDouble() < 1) {
-                    world[x][y] = Tileset.RUNE;
+                    world.setCode(world.index(x, y), rune);
                 }
             }
         }
     }
     /**
      * A generater that add rooms and hallways to world
+     * @param parallel whether to stamp rooms and hallways in parallel
      */
-    private void generateWorld() {
-        List<Room> rooms = bsp.rooms();
-        for (Room r : rooms) {
-            addRoom(r);
-        }
-        List<Room> hallways = bsp.hallways();
-        for (Room h : hallways) {
-            addRoom(h);
-        }
-        addTile(player, Tileset.TARNISHED);
-        addTile(treasure, Tileset.ELDRITCH_TREE);
-        for (Enemy enemy : enemies) {
-            addTile(enemy.getPosition(), Tileset.ENEMY);
-        }
-        removeIsolatedWallTiles();
-        removeSingleTileRooms();
-        convertEnclosedFloorsToWalls();
-        removeDeadEnds();
-        eliminateOneTileRooms();
-    }
-
-    private void removeDeadEnds() {
-        boolean changesMade;
-        do {
-            changesMade = false;
-            for (int x = 0; x < world.length; x++) {
-                for (int y = 0; y < world[0].length; y++) {
-                    if (world[x][y].equals(Tileset.ASHEN_SKY) && isDeadEnd(x, y)) {
-                        world[x][y] = Tileset.ELDENWALL;
-                        changesMade = true;
-                    }
-                }
-            }
-        } while (changesMade);
-    }
-
-    private boolean isDeadEnd(int x, int y) {
-        int walls = 0;
-        if (isWall(x + 1, y)) walls++;
-        if (isWall(x - 1, y)) walls++;
-        if (isWall(x, y + 1)) walls++;
-        if (isWall(x, y - 1)) walls++;
-        return walls == 3;
-    }
-
-    private void removeIsolatedWallTiles() {
-        boolean[][] visited = new boolean[world.length][world[0].length];
-        for (int x = 0; x < world.length; x++) {
-            for (int y = 0; y < world[0].length; y++) {
-                if (world[x][y].equals(Tileset.ELDENWALL) && !visited[x][y]) {
-                    List<Position> connectedWalls = new ArrayList<>();
-                    floodFillWallTiles(x, y, visited, connectedWalls);
-                    if (isIsolatedWallBlock(connectedWalls)) {
-                        for (Position wall : connectedWalls) {
-                            world[wall.x][wall.y] = Tileset.RUNE;
-                        }
-                    }
-                }
-            }
-        }
+    private void generateWorld(boolean parallel) {
+        stamp(world, parallel);
+        postProcess(world);
     }
 
-    private void floodFillWallTiles(int x, int y, boolean[][] visited, List<Position> connectedWalls) {
-        if (x < 0 || x >= world.length || y < 0 || y >= world[0].length) return;
-        if (visited[x][y] || !world[x][y].equals(Tileset.ELDENWALL)) return;
-        visited[x][y] = true;
-        connectedWalls.add(new Position(x, y));
-        floodFillWallTiles(x + 1, y, visited, connectedWalls);
-        floodFillWallTiles(x - 1, y, visited, connectedWalls);
-        floodFillWallTiles(x, y + 1, visited, connectedWalls);
-        floodFillWallTiles(x, y - 1, visited, connectedWalls);
-    }
-
-    private boolean isIsolatedWallBlock(List<Position> wallBlock) {
-        if (wallBlock.size() > 12) return false;
-        for (Position wall : wallBlock) {
-            if (isAdjacentToNonWall(wall.x, wall.y)) {
-                return false;
-            }
-        }
-        return true;
-    }
-
-    private boolean isAdjacentToNonWall(int x, int y) {
-        return checkTile(x + 1, y, Tileset.ASHEN_SKY) ||
-                checkTile(x - 1, y, Tileset.ASHEN_SKY) ||
-                checkTile(x, y + 1, Tileset.ASHEN_SKY) ||
-                checkTile(x, y - 1, Tileset.ASHEN_SKY) ||
-                checkTile(x + 1, y, Tileset.NOTHING) ||
-                checkTile(x - 1, y, Tileset.NOTHING) ||
-                checkTile(x, y + 1, Tileset.NOTHING) ||
-                checkTile(x, y - 1, Tileset.NOTHING);
-    }
-
-    private boolean checkTile(int x, int y, TETile tileType) {
-        if (x >= 0 && x < world.length && y >= 0 && y < world[0].length) {
-            return world[x][y].equals(tileType);
-        }
-        return false;
-    }
     /**
-         * adds room to the world
-         * @param room
-         */
-    private void addRoom(Room room) {
-        if (room.width() == 1 || room.height() == 1) {
-            addHallway(room);
-        }
-        if (room.width() <= 1 || room.height() <= 1) {
-            return;
-        }
-       else {
-            for (int y = 0; y < room.height(); y++) {
-                addRowOfRoom(room, y);
-            }
-        }
-    }
-
-    private void removeSingleTileRooms() {
-        for (int x = 1; x < world.length - 1; x++) {
-            for (int y = 1; y < world[0].length - 1; y++) {
-                if (isRemovableWallTile(x, y)) {
-                    adjustSingleTileRoom(x, y);
-                }
-            }
-        }
-    }
-
-
-    private void eliminateOneTileRooms() {
-        for (int x = 1; x < world.length - 1; x++) {
-            for (int y = 1; y < world[0].length - 1; y++) {
-                if (world[x][y].equals(Tileset.ASHEN_SKY) && isSurroundedByWalls(x, y)) {
-                    world[x][y] = Tileset.ELDENWALL;
-                }
-            }
+     * Stamps the rooms, hallways, player and treasure into grid. The enemies stand in
+     * the occupancy grid instead.
+     * @param grid a grid of this world's size and palette
+     * @param parallel whether to stamp rooms and hallways in parallel
+     */
+    private void stamp(TileGrid grid, boolean parallel) {
+        RoomStamper stamper = new RoomStamper(grid, floorCode, wallCode);
+        if (parallel) {
+            List<Room> all = new ArrayList<>(bsp.rooms());
+            all.addAll(bsp.hallways());
+            stamper.stampParallel(bsp, all);
+        } else {
+            stamper.stamp(bsp.rooms());
+            stamper.stamp(bsp.hallways());
         }
+        grid.set(player.x, player.y, Tileset.TARNISHED);
+        grid.set(treasure.x, treasure.y, Tileset.ELDRITCH_TREE);
     }
 
-    private boolean isSurroundedByWalls(int x, int y) {
-        return isWall(x + 1, y) && isWall(x - 1, y) && isWall(x, y + 1) && isWall(x, y - 1);
-    }
-
-    private boolean isEnclosedFloor(int x, int y) {
-        return isWall2(x + 1, y) && isWall2(x - 1, y) && isWall2(x, y + 1) && isWall2(x, y - 1);
-    }
-
-    private boolean isWall2(int x, int y) {
-        if (!isWithinBounds(x, y)) return false;
-        TETile tile = world[x][y];
-        return tile.equals(Tileset.ELDENWALL);
+    /**
+     * The post-processing passes, in the order postProcess applies them.
+     */
+    enum Pass {
+        ISOLATED_WALLS, SINGLE_TILE_ROOMS, ENCLOSED_FLOORS, DEAD_ENDS, ONE_TILE_ROOMS
     }
 
-    private void convertEnclosedFloorsToWalls() {
-        for (int x = 0; x < world.length; x++) {
-            for (int y = 0; y < world[0].length; y++) {
-                if (world[x][y].equals(Tileset.ASHEN_SKY) && isEnclosedFloor(x, y)) {
-                    world[x][y] = Tileset.ELDENWALL;
-                }
-            }
+    /**
+     * Returns a new grid with this world as it was before post-processing: the
+     * backdrop with the rooms, hallways, player and treasure stamped in.
+     * Lets benchmarks run the post-processing passes on their own.
+     */
+    TileGrid stampedGrid() {
+        TileGrid grid = world.copy();
+        int rune = grid.code(Tileset.RUNE);
+        for (int i = 0; i < grid.width() * grid.height(); i++) {
+            grid.setCode(i, rune);
         }
+        stamp(grid, false);
+        return grid;
     }
 
-    private boolean isRemovableWallTile(int x, int y) {
-        return isWall(x, y) &&
-                isWall(x + 1, y) && isWall(x, y + 1) &&
-                !isFloor(x + 1, y + 1) &&
-                isWall(x - 1, y) && isWall(x, y - 1) &&
-                !isFloor(x - 1, y - 1);
-    }
-
-    private boolean isFloor(int x, int y) {
-        return isWithinBounds(x, y) && world[x][y].equals(Tileset.ASHEN_SKY);
-    }
-
-    private boolean isWall(int x, int y) {
-        return isWithinBounds(x, y) && world[x][y].equals(Tileset.ELDENWALL);
+    /**
+     * Runs a single post-processing pass over grid. Running every pass in the order of
+     * {@link Pass} gives the same grid as {@link #postProcess}.
+     * @param pass the pass
+     * @param grid a grid from {@link #stampedGrid}
+     */
+    void runPass(Pass pass, TileGrid grid) {
+        StencilPipeline pipeline = new StencilPipeline();
+        switch (pass) {
+            case ISOLATED_WALLS:
+                pipeline.add(isolatedWallsToRune(grid), wallCode, false);
+                break;
+            case SINGLE_TILE_ROOMS:
+                pipeline.add(this::openSingleTileRoom, wallCode, true);
+                break;
+            case ENCLOSED_FLOORS:
+                pipeline.add(this::fillEnclosedFloor, floorCode, false);
+                break;
+            case DEAD_ENDS:
+                DeadEnds.prune(grid, floorCode, wallCode);
+                return;
+            case ONE_TILE_ROOMS:
+                pipeline.add(this::fillEnclosedFloor, floorCode, true);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown pass " + pass);
+        }
+        pipeline.run(grid);
     }
 
-    private void adjustSingleTileRoom(int x, int y) {
-        if (isRemovableWallTile(x, y)) {
-            world[x][y] = Tileset.ASHEN_SKY;
-        }
+    /**
+     * Cleans up the stamped rooms and hallways. Small wall blocks that touch no open
+     * tile go back to the backdrop, single wall tiles between rooms open up, and floors
+     * walled in on all sides or at a dead end are filled in. The local rules are stencils
+     * run in two StencilPipeline sweeps, with the rest of the dead end filling between.
+     * @param grid a grid of this world's size and palette
+     */
+    void postProcess(TileGrid grid) {
+        DeadEnds deadEnds = new DeadEnds(grid, floorCode, wallCode);
+        new StencilPipeline()
+                .add(isolatedWallsToRune(grid), wallCode, false)
+                .add(this::openSingleTileRoom, wallCode, true)
+                .add(this::fillEnclosedFloor, floorCode, false)
+                .add(deadEnds.firstSweep(), floorCode, false)
+                .run(grid);
+        deadEnds.finish();
+        new StencilPipeline()
+                .add(this::fillEnclosedFloor, floorCode, true)
+                .run(grid);
     }
 
-    private void addHallway(Room hallway) {
-        for (int x = hallway.xOffset(); x < hallway.xOffset() + hallway.width(); x++) {
-            for (int y = hallway.yOffset(); y < hallway.yOffset() + hallway.height(); y++) {
-                if (isWithinBounds(x, y)) {
-                    world[x][y] = Tileset.ASHEN_SKY;
-                    connectAdjacentTiles(x, y);
+    /**
+     * Returns a stencil that turns small wall blocks (at most 12 tiles) that do not
+     * touch a floor or NOTHING tile back into the RUNE backdrop.
+     */
+    private StencilPipeline.Stencil isolatedWallsToRune(TileGrid grid) {
+        RegionLabels walls = new RegionLabels(grid, wallCode, true);
+        boolean[] removable = new boolean[walls.count() + 1];
+        for (int label = 1; label <= walls.count(); label++) {
+            removable[label] = walls.size(label) <= 12;
+        }
+        for (int x = 0; x < grid.width(); x++) {
+            for (int y = 0; y < grid.height(); y++) {
+                int label = walls.label(x, y);
+                if (removable[label] && isAdjacentToNonWall(grid, x, y)) {
+                    removable[label] = false;
                 }
             }
         }
+        int rune = grid.code(Tileset.RUNE);
+        return w -> removable[walls.labelAt(w.index)] ? rune : w.c;
     }
 
-    private boolean isWithinBounds(int x, int y) {
-        boolean withinBounds = x >= 0 && x < world.length && y >= 0 && y < world[0].length;
-        if (!withinBounds) {
-            System.err.println("Attempted to place a tile outside of world bounds at: " + x + ", " + y);
-        }
-        return withinBounds;
-    }
-
-    private void connectAdjacentTiles(int x, int y) {
-        if (x > 0 && isWithinBounds(x - 1, y) && world[x - 1][y] != Tileset.ASHEN_SKY) {
-            world[x - 1][y] = Tileset.ELDENWALL;
-        }
-        if (x < world.length - 1 && isWithinBounds(x + 1, y) && world[x + 1][y] != Tileset.ASHEN_SKY) {
-            world[x + 1][y] = Tileset.ELDENWALL;
-        }
-        if (y < world[0].length - 1 && isWithinBounds(x, y + 1) && world[x][y + 1] != Tileset.ASHEN_SKY) {
-            world[x][y + 1] = Tileset.ELDENWALL;
-        }
-        if (y > 0 && isWithinBounds(x, y - 1) && world[x][y - 1] != Tileset.ASHEN_SKY) {
-            world[x][y - 1] = Tileset.ELDENWALL;
+    /**
+     * A wall tile with walls on all four sides and no floor to its north-east or
+     * south-west becomes floor.
+     */
+    private int openSingleTileRoom(StencilPipeline.Window w) {
+        if (w.c == wallCode && w.e() == wallCode && w.n() == wallCode && w.ne() != floorCode
+                && w.w() == wallCode && w.s() == wallCode && w.sw() != floorCode) {
+            return floorCode;
         }
+        return w.c;
     }
 
     /**
-     * adds a row of room to the world.
-     * If the row is the first or the last row, add all TETiles of WALL
-     * Otherwise, add TETiles of WaLL to the first and the last tile
-     * and TETiles of FLOOR to the rest tiles
-     * @param room
-     * @param row
+     * A floor tile with walls on all four sides becomes wall.
      */
-    private void addRowOfRoom(Room room, int row) {
-        int y = room.yOffset() + row;
-        int xLast = room.xOffset() + room.width() - 1;
-        if (row == 0 || row == room.height() - 1) {
-            for (int x = room.xOffset(); x <= xLast; x++) {
-                addTile(new Position(x, y), Tileset.ELDENWALL);
-            }
-            return;
-        }
-        addTile(new Position(room.xOffset(), y), Tileset.ELDENWALL);
-        for (int x = room.xOffset() + 1; x < xLast; x++) {
-            addTile(new Position(x, y), Tileset.ASHEN_SKY);
+    private int fillEnclosedFloor(StencilPipeline.Window w) {
+        if (w.c == floorCode && w.e() == wallCode && w.w() == wallCode
+                && w.n() == wallCode && w.s() == wallCode) {
+            return wallCode;
         }
-        addTile(new Position(xLast, y), Tileset.ELDENWALL);
+        return w.c;
     }
 
+    private boolean isAdjacentToNonWall(TileGrid grid, int x, int y) {
+        return grid.is(x + 1, y, floorCode) ||
+                grid.is(x - 1, y, floorCode) ||
+                grid.is(x, y + 1, floorCode) ||
+                grid.is(x, y - 1, floorCode) ||
+                grid.is(x + 1, y, nothingCode) ||
+                grid.is(x - 1, y, nothingCode) ||
+                grid.is(x, y + 1, nothingCode) ||
+                grid.is(x, y - 1, nothingCode);
+    }
     /**
      * Adds a tile t to the world to the given position p in the world.
      * when the current tile is FLOOR, Wall is added to prevent overlapping
@@ -328,8 +284,13 @@ public class World {
      */
 
     private void addTile(Position p, TETile t) {
-        if (!t.equals(Tileset.ELDENWALL) || !world[p.x][p.y].equals(Tileset.ASHEN_SKY)) {
-            world[p.x][p.y] = t;
+        addTile(p.x, p.y, world.code(t));
+    }
+
+    private void addTile(int x, int y, int code) {
+        int i = world.index(x, y);
+        if (code != wallCode || world.codeAt(i) != floorCode) {
+            world.setCode(i, code);
         }
     }
 
@@ -383,34 +344,42 @@ public class World {
         return false;
     }
 
+    /**
+     * Places up to 10 enemies, each in a room of its own. Gives up on the remaining
+     * enemies once one of them found no room in MAX_ENEMY_ROOM_DRAWS draws, which
+     * happens when too few rooms are left that are far enough from the player.
+     */
     private void createEnemies() {
-        enemies = new ArrayList<>();
+        occupants = new OccupancyGrid(world.width(), world.height());
+        occupants.overlay(world);
+        enemies = new EnemyStore(world, occupants);
         int numberOfEnemies = 10;
-        List<Integer> usedRoomIndices = new ArrayList<>();
+        boolean[] usedRooms = new boolean[bsp.rooms().size()];
         for (int i = 0; i < numberOfEnemies; i++) {
             int roomIndex;
             Room room;
             Position enemyPosition;
+            boolean rejected;
+            int draws = 0;
             do {
                 roomIndex = RandomUtils.uniform(random, bsp.rooms().size());
                 room = bsp.rooms().get(roomIndex);
                 enemyPosition = findValidPositionInRoom(room);
-            } while (usedRoomIndices.contains(roomIndex) || roomIndex == roomIndexPlayer || roomIndex == roomIndexTreasure
-                    || enemyPosition == null || enemyPosition.equals(player) || isPositionOccupiedByEnemy(enemyPosition));
-            usedRoomIndices.add(roomIndex);
-            if (enemyPosition != null) {
-                enemies.add(new Enemy(enemyPosition, Tileset.ENEMY, world));
+                rejected = usedRooms[roomIndex] || roomIndex == roomIndexPlayer
+                        || roomIndex == roomIndexTreasure || enemyPosition == null
+                        || enemyPosition.equals(player) || isPositionOccupiedByEnemy(enemyPosition);
+                draws++;
+            } while (rejected && draws < MAX_ENEMY_ROOM_DRAWS);
+            if (rejected) {
+                break;
             }
+            usedRooms[roomIndex] = true;
+            enemies.add(enemyPosition.x, enemyPosition.y);
         }
     }
 
     private boolean isPositionOccupiedByEnemy(Position position) {
-        for (Enemy enemy : enemies) {
-            if (enemy.getPosition().equals(position)) {
-                return true;
-            }
-        }
-        return false;
+        return !occupants.isFree(position.x, position.y);
     }
 
     private Position findValidPositionInRoom(Room room) {
@@ -435,13 +404,88 @@ public class World {
         return Math.abs(a.x - b.x) + Math.abs(a.y - b.y);
     }
     private boolean isValidEnemyPosition(int x, int y) {
-        return x >= 0 && x < world.length && y >= 0 && y < world[0].length &&
-                !world[x][y].description().equals("wall") && !world[x][y].description().equals("non-walkable");
+        return world.inBounds(x, y) &&
+                !world.get(x, y).description().equals("wall") && !world.get(x, y).description().equals("non-walkable");
+    }
+
+    /**
+     * Returns whether a walker can get from a to b without crossing a wall.
+     * @param a the start position
+     * @param b the end position
+     */
+    public boolean isReachable(Position a, Position b) {
+        if (walkableRegions == null) {
+            walkableRegions = new RegionLabels(world, wallCode, false);
+        }
+        return walkableRegions.connected(a.x, a.y, b.x, b.y);
+    }
+
+    /**
+     * Returns a copy of the world as it was generated, with the palette codes of
+     * grid() for every tile it holds. Used to save only the tiles that changed.
+     */
+    TileGrid generatedGrid() {
+        return generated;
+    }
+
+    /**
+     * Puts the player and every enemy at the given positions, for loading a save. The
+     * tiles must already show the player there.
+     * @param enemies one position per enemy, in the order of the enemy store
+     * @param cooldowns the wander cooldown of each enemy, in the same order
+     */
+    void restore(Position player, List<Position> enemies, int[] cooldowns) throws IOException {
+        if (!world.inBounds(player.x, player.y) || enemies.size() != this.enemies.size()) {
+            throw new IOException("save does not match the world of its seed");
+        }
+        this.player = player;
+        for (int k = 0; k < enemies.size(); k++) {
+            this.enemies.place(k, enemies.get(k).x, enemies.get(k).y, cooldowns[k]);
+        }
+        playerField.rebuild(player.x, player.y);
+    }
+
+    /**
+     * Returns the player's field of view, cast again only if the player moved since the
+     * last call.
+     */
+    public FieldOfView sight() {
+        if (sight == null) {
+            sight = new FieldOfView(world);
+        }
+        sight.compute(player.x, player.y, SIGHT_RADIUS);
+        return sight;
     }
 
-    public List<Enemy> getEnemies() {
+    /**
+     * Returns the graph of the world's rooms and hallways, for walks across the map
+     * that would take a tile by tile search too long. Nothing in the game walks by it
+     * yet: the enemies follow the player's distance field, which covers the whole map.
+     */
+    public RoomGraph roomGraph() {
+        if (roomGraph == null) {
+            roomGraph = new RoomGraph(world, bsp.rooms(), bsp.hallways());
+        }
+        return roomGraph;
+    }
+
+    /**
+     * Returns whether p and the player can see each other.
+     */
+    public boolean isVisibleToPlayer(Position p) {
+        return sight().isVisible(p.x, p.y);
+    }
+
+    EnemyStore getEnemies() {
         return enemies;
     }
+
+    /**
+     * Moves every enemy one step towards the player along the shared distance field.
+     */
+    public void moveEnemies() {
+        enemies.step(playerField);
+    }
     /**
      * locate player's position and save this position as target
      * save the world at position target to t a TETile
@@ -453,11 +497,15 @@ public class World {
      */
     public Engine.Status movePlayer(Engine.Direction d) {
         Position target = target(d);
-        TETile t = world[target.x][target.y];
+        if (!world.inBounds(target.x, target.y)) {
+            return Engine.Status.PLAY;
+        }
+        TETile t = world.get(target.x, target.y);
         if (!t.equals(Tileset.ELDENWALL)) {
             addTile(player, Tileset.MISTY_FOREST);
             addTile(target, Tileset.TARNISHED);
             player = target;
+            playerField.moveSource(player.x, player.y);
             if (t.equals(Tileset.ELDRITCH_TREE)) {
                 return Engine.Status.WIN;
             }
@@ -465,6 +513,52 @@ public class World {
         return Engine.Status.PLAY;
     }
 
+    /**
+     * Moves the player by each move of moves[from, to), exactly as the same calls to
+     * movePlayer would, and stops after a move that reaches the treasure. A move is the
+     * ordinal of an Engine.Direction.
+     *
+     * This is the fast path for replaying saved input: the player is kept as two ints
+     * and the tiles are written by palette code, so a move allocates nothing. The
+     * player's distance field, which movePlayer repairs after every step, is rebuilt
+     * once at the end; nothing reads it in between, and a rebuilt field holds the same
+     * distances as a repaired one.
+     * @return the index after the last move applied, to unless the treasure was reached
+     */
+    int applyMoves(byte[] moves, int from, int to) {
+        int trail = world.code(Tileset.MISTY_FOREST);
+        int self = world.code(Tileset.TARNISHED);
+        int goal = world.code(Tileset.ELDRITCH_TREE);
+        int x = player.x;
+        int y = player.y;
+        int i = from;
+        while (i < to) {
+            int d = moves[i++];
+            int tx = x + STEP_X[d];
+            int ty = y + STEP_Y[d];
+            if (!world.inBounds(tx, ty)) {
+                continue;
+            }
+            int target = world.index(tx, ty);
+            int code = world.codeAt(target);
+            if (code == wallCode) {
+                continue;
+            }
+            world.setCode(world.index(x, y), trail);
+            world.setCode(target, self);
+            x = tx;
+            y = ty;
+            if (code == goal) {
+                break;
+            }
+        }
+        if (x != player.x || y != player.y) {
+            player = new Position(x, y);
+            playerField.rebuild(x, y);
+        }
+        return i;
+    }
+
     /**
      * return the target position based on the player's current position
      * @param d the direction of the player
@@ -482,12 +576,29 @@ public class World {
 
     /**
      *
-     * @return TETile 2d array
+     * @return the live TETile 2d array of the tiles with the enemies on top, kept
+     * current as the world changes rather than copied
      */
     public TETile[][] worldFrame() {
+        return world.frame();
+    }
+
+    /**
+     *
+     * @return the terrain of the world as a packed grid, without the enemies
+     */
+    public TileGrid grid() {
         return world;
     }
 
+    /**
+     *
+     * @return the enemies of the world, standing over grid()
+     */
+    public OccupancyGrid occupants() {
+        return occupants;
+    }
+
     /**
      *
      * @return the position of the player
@@ -505,14 +616,12 @@ public class World {
     }
 
     /**
-     * Saves the state of the current state of the board into the
-     * save.txt file (make sure it's saved into this specific file).
-     * 0 represents NOTHING, 1 represents a CELL.
+     * Saves the tiles of the board into BOARD_FILE as a WorldFile, which
+     * WorldFile.open can map back in.
      */
     public void saveBoard() {
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(SAVE_FILE))) {
-            writer.write(TETile.toString(world));
-            writer.write("\n");
+        try {
+            WorldFile.write(Paths.get(BOARD_FILE), world);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -522,12 +631,6 @@ public class World {
     }
 
     public boolean isPlayerCaptured() {
-        Position playerPosition = getPlayerPosition();
-        for (Enemy enemy : getEnemies()) {
-            if (enemy.getPosition().equals(playerPosition)) {
-                return true;
-            }
-        }
-        return false;
+        return !occupants.isFree(player.x, player.y);
     }
 }
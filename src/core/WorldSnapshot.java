@@ -0,0 +1,140 @@
+package core;
+
+import tileengine.OccupancyGrid;
+import tileengine.TETile;
+import tileengine.TileGrid;
+
+import java.util.Arrays;
+
+/**
+ * What the simulation thread hands to the render thread: the tiles and occupants that
+ * changed since the previous snapshot, or a copy of every tile and occupant when the
+ * world was replaced, plus the player, the game status and the view mode as of the last
+ * change.
+ *
+ * Snapshots are double buffered by {@link Exchange}. The simulation appends to the back
+ * snapshot while the render thread reads the front one, and take() swaps the two, so
+ * the render thread never sees a half-written tick and neither thread waits on the
+ * other for more than the swap.
+ */
+final class WorldSnapshot {
+    TileGrid reset;        // copy of a new world's tiles, or null
+    OccupancyGrid resetOccupants; // copy of its occupants, when reset is not null
+    Position player;
+    Engine.Status status;
+    boolean lineOfSight;
+    private int[] cells = new int[64];
+    private TETile[] tiles = new TETile[64];
+    private int count;
+    private int[] occupiedCells = new int[64];
+    private int[] occupantIds = new int[64];
+    private int occupiedCount;
+
+    /**
+     * Writes the changes to view and its occupants, which must be reset when reset is
+     * not null.
+     */
+    void applyTo(TileGrid view, OccupancyGrid occupants) {
+        int h = view.height();
+        for (int k = 0; k < count; k++) {
+            view.set(cells[k] / h, cells[k] % h, tiles[k]);
+        }
+        for (int k = 0; k < occupiedCount; k++) {
+            occupants.set(occupiedCells[k], occupantIds[k]);
+        }
+    }
+
+    private void record(TileGrid grid) {
+        int h = grid.height();
+        for (int k = 0; k < grid.damageCount(); k++) {
+            int i = grid.damagedCell(k);
+            if (count == cells.length) {
+                cells = Arrays.copyOf(cells, count * 2);
+                tiles = Arrays.copyOf(tiles, count * 2);
+            }
+            cells[count] = i;
+            tiles[count] = grid.get(i / h, i % h);
+            count++;
+        }
+        grid.clearDamage();
+    }
+
+    private void record(OccupancyGrid occupants) {
+        for (int k = 0; k < occupants.damageCount(); k++) {
+            int i = occupants.damagedCell(k);
+            if (occupiedCount == occupiedCells.length) {
+                occupiedCells = Arrays.copyOf(occupiedCells, occupiedCount * 2);
+                occupantIds = Arrays.copyOf(occupantIds, occupiedCount * 2);
+            }
+            occupiedCells[occupiedCount] = i;
+            occupantIds[occupiedCount] = occupants.idAt(i);
+            occupiedCount++;
+        }
+        occupants.clearDamage();
+    }
+
+    private void clear() {
+        reset = null;
+        resetOccupants = null;
+        Arrays.fill(tiles, 0, count, null);
+        count = 0;
+        occupiedCount = 0;
+    }
+
+    /**
+     * The pair of snapshots shared by the two threads.
+     */
+    static final class Exchange {
+        private WorldSnapshot front = new WorldSnapshot();
+        private WorldSnapshot back = new WorldSnapshot();
+
+        /**
+         * Adds the changes of world since the last call to the back snapshot. With
+         * reset, which the first call for a world needs, the back snapshot gets a copy
+         * of all of world's tiles and occupants instead. Call from the simulation thread.
+         */
+        synchronized void publish(World world, boolean reset, Engine.Status status,
+                                  boolean lineOfSight) {
+            TileGrid grid = world.grid();
+            OccupancyGrid occupants = world.occupants();
+            grid.trackDamage();
+            occupants.trackDamage();
+            if (reset) {
+                back.clear();
+                back.reset = grid.copy();
+                back.resetOccupants = occupants.copy();
+                grid.clearDamage();
+                occupants.clearDamage();
+            } else {
+                back.record(grid);
+                back.record(occupants);
+            }
+            back.player = new Position(world.getPlayer().x, world.getPlayer().y);
+            back.status = status;
+            back.lineOfSight = lineOfSight;
+        }
+
+        /**
+         * Sets the status of the back snapshot and leaves its tiles as they are, for a
+         * game that has no world to publish. Call from the simulation thread.
+         */
+        synchronized void publish(Engine.Status status) {
+            back.status = status;
+        }
+
+        /**
+         * Returns everything published since the last call. The snapshot stays valid
+         * until the next call. Call from the render thread.
+         */
+        synchronized WorldSnapshot take() {
+            WorldSnapshot taken = back;
+            back = front;
+            back.clear();
+            back.player = taken.player;
+            back.status = taken.status;
+            back.lineOfSight = taken.lineOfSight;
+            front = taken;
+            return taken;
+        }
+    }
+}
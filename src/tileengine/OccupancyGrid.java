@@ -0,0 +1,192 @@
+package tileengine;
+
+import java.util.Arrays;
+
+/**
+ * The entities standing on a width x height grid, as one int per cell: the id of the
+ * entity on the cell, or FREE. It lies over a TileGrid of terrain of the same size and
+ * in the same cell order, x * height + y, so moving an entity writes two ints here and
+ * leaves the terrain as it was, and asking whether a cell is taken is one array read.
+ *
+ * Each id is drawn with the tile given to it by setTile; what a cell shows is its
+ * entity's tile if it has one and its terrain tile otherwise (see tileAt). A cell holds
+ * at most one entity.
+ *
+ * Once laid over its terrain with overlay(), the grid also shows its entities in the
+ * terrain's frame(), so code that works on TETile[][] sees both without a copy.
+ *
+ * Like TileGrid, the grid can keep a list of the cells whose entity changed since the
+ * last clearDamage(), so a renderer can redraw just those.
+ */
+public class OccupancyGrid {
+    public static final int FREE = 0;
+
+    private final int width;
+    private final int height;
+    private final int[] ids;
+    private TETile[] tiles;      // tile of each id; tiles[FREE] is unused
+    private TileGrid terrain;    // the grid whose frame shows these entities, or null
+    private boolean[] damaged;   // null until damage tracking starts
+    private int[] damage;        // changed cells, in order of their first change
+    private int damageCount;
+
+    /**
+     * Creates a grid with every cell free.
+     */
+    public OccupancyGrid(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.ids = new int[width * height];
+        this.tiles = new TETile[16];
+    }
+
+    private OccupancyGrid(OccupancyGrid other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.ids = other.ids.clone();
+        this.tiles = other.tiles.clone();
+    }
+
+    /**
+     * Returns a new grid with the same entities and tiles as this one.
+     */
+    public OccupancyGrid copy() {
+        return new OccupancyGrid(this);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the index of the cell (x, y), the same as TileGrid.index.
+     */
+    public int index(int x, int y) {
+        return x * height + y;
+    }
+
+    /**
+     * Makes entity id show as tile. Call it before putting id on a cell: a frame that
+     * already shows id keeps the old tile.
+     */
+    public void setTile(int id, TETile tile) {
+        if (id >= tiles.length) {
+            tiles = Arrays.copyOf(tiles, Math.max(id + 1, tiles.length * 2));
+        }
+        tiles[id] = tile;
+    }
+
+    /**
+     * Returns the tile entity id shows as.
+     */
+    public TETile tile(int id) {
+        return tiles[id];
+    }
+
+    /**
+     * Returns the id of the entity on the cell at index i, or FREE.
+     */
+    public int idAt(int i) {
+        return ids[i];
+    }
+
+    public int idAt(int x, int y) {
+        return ids[x * height + y];
+    }
+
+    public boolean isFree(int i) {
+        return ids[i] == FREE;
+    }
+
+    public boolean isFree(int x, int y) {
+        return ids[x * height + y] == FREE;
+    }
+
+    /**
+     * Puts entity id, or FREE, on the cell at index i, replacing whatever was there.
+     */
+    public void set(int i, int id) {
+        if (damaged != null && !damaged[i] && ids[i] != id) {
+            damaged[i] = true;
+            if (damageCount == damage.length) {
+                damage = Arrays.copyOf(damage, damageCount * 2);
+            }
+            damage[damageCount++] = i;
+        }
+        ids[i] = id;
+        if (terrain != null) {
+            terrain.overlayChanged(i);
+        }
+    }
+
+    /**
+     * Moves entity id from cell from to cell to. The from cell is freed only if id is
+     * still on it, so an entity that was put over id's old cell stays there.
+     */
+    public void move(int from, int to, int id) {
+        if (ids[from] == id) {
+            set(from, FREE);
+        }
+        set(to, id);
+    }
+
+    /**
+     * Returns what (x, y) shows: the tile of its entity, or the terrain tile of the cell
+     * if it is free.
+     * @param terrain the terrain under this grid
+     */
+    public TETile tileAt(TileGrid terrain, int x, int y) {
+        int id = ids[x * height + y];
+        return id == FREE ? terrain.get(x, y) : tiles[id];
+    }
+
+    /**
+     * Shows this grid's entities in terrain's frame() from now on, on top of the
+     * terrain tiles. Writes to either grid keep the frame current. A copy of this grid
+     * is not shown anywhere.
+     * @param terrain the terrain under this grid
+     */
+    public void overlay(TileGrid terrain) {
+        this.terrain = terrain;
+        terrain.setOverlay(this);
+    }
+
+    /**
+     * Starts recording which cells change. Does nothing if recording already started.
+     */
+    public void trackDamage() {
+        if (damaged == null) {
+            damaged = new boolean[ids.length];
+            damage = new int[16];
+            damageCount = 0;
+        }
+    }
+
+    /**
+     * Returns the number of cells that changed since the last clearDamage().
+     */
+    public int damageCount() {
+        return damageCount;
+    }
+
+    /**
+     * Returns the index of the k-th changed cell.
+     */
+    public int damagedCell(int k) {
+        return damage[k];
+    }
+
+    /**
+     * Forgets the changed cells, after they have been redrawn.
+     */
+    public void clearDamage() {
+        for (int k = 0; k < damageCount; k++) {
+            damaged[damage[k]] = false;
+        }
+        damageCount = 0;
+    }
+}
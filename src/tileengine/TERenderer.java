@@ -1,12 +1,20 @@
 package tileengine;
 
+import core.FieldOfView;
 import core.Position;
 import core.World;
 import edu.princeton.cs.algs4.StdDraw;
 
 import java.awt.Color;
 import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.util.Arrays;
 
 /**
  * Utility class for rendering tiles. You do not need to modify this file. You're welcome
@@ -16,10 +24,35 @@ import java.io.Serializable;
  */
 public class TERenderer implements Serializable {
     private static final int TILE_SIZE = 16;
+    private static final double SCROLL = 0.25; // part of the way follow moves per frame
+
+    /**
+     * How tiles reach the screen. STDDRAW draws every tile onto StdDraw's canvas.
+     * FRAMEBUFFER copies tiles as pixel rows into an image of the whole window and
+     * draws that image onto the canvas once per frame; it falls back to STDDRAW when
+     * StdDraw's offscreen buffer cannot be reached or does not cover the canvas.
+     */
+    public enum Backend { STDDRAW, FRAMEBUFFER }
+
     private int width;
     private int height;
     private int xOffset;
     private int yOffset;
+    private Backend backend = Backend.STDDRAW;
+    private int viewWidth;   // size of the viewport in tiles; its bottom left is
+    private int viewHeight;  // at (xOffset, yOffset) on the screen
+    private double cameraX;  // world position shown at the bottom left of the viewport,
+    private double cameraY;  // in tiles
+    private int cameraPx;    // the camera rounded to whole pixels, as tiles are drawn
+    private int cameraPy;
+    private transient BufferedImage frameImage; // FRAMEBUFFER: the window, INT_RGB
+    private transient int[] framePixels;        // FRAMEBUFFER: frameImage's pixels, row by row
+    private transient TileAtlas atlas; // pre-drawn tiles, created on first use
+    private transient TileGrid drawn; // grid the back buffer shows, for renderDamage
+    private transient OccupancyGrid drawnOccupants; // and the entities over it
+    private boolean stale = true;     // whether the back buffer no longer shows drawn
+    private int drawnPx;              // camera the back buffer was drawn with
+    private int drawnPy;
 
     /**
      * Same functionality as the other initialization method. The only difference is that the xOff
@@ -31,10 +64,28 @@ public class TERenderer implements Serializable {
      * @param h height of the window in tiles.
      */
     public void initialize(int w, int h, int xOff, int yOff) {
+        initialize(w, h, xOff, yOff, Backend.STDDRAW);
+    }
+
+    /**
+     * Same as initialize(w, h, xOff, yOff), drawing tiles with the given backend.
+     * @param w width of the window in tiles
+     * @param h height of the window in tiles.
+     * @param backend how tiles reach the screen
+     */
+    public void initialize(int w, int h, int xOff, int yOff, Backend backend) {
         this.width = w;
         this.height = h;
         this.xOffset = xOff;
         this.yOffset = yOff;
+        this.backend = backend;
+        this.stale = true;
+        this.viewWidth = w - xOff;
+        this.viewHeight = h - yOff;
+        this.cameraX = 0;
+        this.cameraY = 0;
+        this.cameraPx = 0;
+        this.cameraPy = 0;
         StdDraw.setCanvasSize(width * TILE_SIZE, height * TILE_SIZE);
         resetFont();
         StdDraw.setXscale(0, width);
@@ -44,6 +95,18 @@ public class TERenderer implements Serializable {
 
         StdDraw.enableDoubleBuffering();
         StdDraw.show();
+
+        frameImage = null;
+        framePixels = null;
+        if (backend == Backend.FRAMEBUFFER) {
+            if (offscreen() == null) {
+                this.backend = Backend.STDDRAW;
+            } else {
+                frameImage = new BufferedImage(width * TILE_SIZE, height * TILE_SIZE,
+                        BufferedImage.TYPE_INT_RGB);
+                framePixels = ((DataBufferInt) frameImage.getRaster().getDataBuffer()).getData();
+            }
+        }
     }
 
     /**
@@ -63,6 +126,70 @@ public class TERenderer implements Serializable {
         initialize(w, h, 0, 0);
     }
 
+    /**
+     * Sets the size of the viewport, the part of the window that shows the world. It
+     * starts at (xOffset, yOffset) and by default reaches the top right of the window.
+     * @param w width of the viewport in tiles
+     * @param h height of the viewport in tiles
+     */
+    public void setViewport(int w, int h) {
+        this.viewWidth = w;
+        this.viewHeight = h;
+    }
+
+    /**
+     * Moves the camera part of the way towards centring target in the viewport, so that
+     * calling this once per frame scrolls smoothly after a moving target. The camera
+     * never shows past the edges of a world of worldWidth x worldHeight tiles; a world
+     * smaller than the viewport stays at its bottom left. A target outside the viewport,
+     * as in a world that was just created, is centred at once.
+     */
+    public void follow(Position target, int worldWidth, int worldHeight) {
+        boolean inView = target.x() >= cameraX && target.x() < cameraX + viewWidth
+                && target.y() >= cameraY && target.y() < cameraY + viewHeight;
+        moveCamera(target, worldWidth, worldHeight, inView ? SCROLL : 1);
+    }
+
+    /**
+     * Puts the camera where follow is heading to at once, without scrolling.
+     */
+    public void centerOn(Position target, int worldWidth, int worldHeight) {
+        moveCamera(target, worldWidth, worldHeight, 1);
+    }
+
+    private void moveCamera(Position target, int worldWidth, int worldHeight, double step) {
+        double toX = clamp(target.x() + 0.5 - viewWidth / 2.0, worldWidth - viewWidth);
+        double toY = clamp(target.y() + 0.5 - viewHeight / 2.0, worldHeight - viewHeight);
+        cameraX += (toX - cameraX) * step;
+        cameraY += (toY - cameraY) * step;
+        if (Math.abs(toX - cameraX) * TILE_SIZE < 1) {
+            cameraX = toX;
+        }
+        if (Math.abs(toY - cameraY) * TILE_SIZE < 1) {
+            cameraY = toY;
+        }
+        cameraPx = (int) Math.round(cameraX * TILE_SIZE);
+        cameraPy = (int) Math.round(cameraY * TILE_SIZE);
+    }
+
+    private static double clamp(double v, double max) {
+        return Math.max(0, Math.min(v, max));
+    }
+
+    /**
+     * Returns the world x of the tile under screen position x, in tiles.
+     */
+    public int worldX(double x) {
+        return (int) Math.floor(x - xOffset + cameraPx / (double) TILE_SIZE);
+    }
+
+    /**
+     * Returns the world y of the tile under screen position y, in tiles.
+     */
+    public int worldY(double y) {
+        return (int) Math.floor(y - yOffset + cameraPy / (double) TILE_SIZE);
+    }
+
     /**
      * Takes in a 2d array of TETile objects and renders the 2d array to the screen, starting from
      * xOffset and yOffset.
@@ -83,69 +210,384 @@ public class TERenderer implements Serializable {
      * This method assumes that the xScale and yScale have been set such that the max x
      * value is the width of the screen in tiles, and the max y value is the height of
      * the screen in tiles.
+     *
+     * Only the tiles inside the viewport are drawn, starting from the camera (see follow),
+     * so the cost depends on the size of the window and not of the world.
      * @param world the 2D TETile[][] array to render
      */
     public void renderFrame(TETile[][] world) {
+        stale = true;
         StdDraw.clear(new Color(0, 0, 0));
+        clearFrame();
         drawTiles(world);
         StdDraw.show();
     }
 
     public void renderTile(int x, int y, TETile tile) {
+        stale = true;
         StdDraw.clear(Color.black);
         Font font = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
         StdDraw.setFont(font);
-        tile.draw(x + xOffset, y + yOffset);
+        clearFrame();
+        Graphics2D g = offscreen();
+        drawTile(g, tile, pixelX(x), pixelY(y));
+        present(g);
         StdDraw.show();
     }
 
+    /**
+     * Draws only the tiles the player can see, as found by the world's field of view:
+     * walls block sight, and the rest of the screen is black.
+     * @param world the world to draw
+     */
     public void renderTiles(World world) {
+        renderSight(world.grid(), world.occupants(), world.sight());
+    }
+
+    /**
+     * Draws the tiles of grid that are in sight, with the entities of occupants on top,
+     * and black everywhere else.
+     * @param grid the world tiles
+     * @param occupants the entities standing on grid
+     * @param sight a field of view over grid
+     */
+    public void renderSight(TileGrid grid, OccupancyGrid occupants, FieldOfView sight) {
+        stale = true;
         StdDraw.clear(Color.black);
         Font font = new Font("Monaco", Font.BOLD, TILE_SIZE - 2);
         StdDraw.setFont(font);
-        TETile[][] worldFrame = world.worldFrame();
-        int playerX = world.getPlayer().x();
-        int playerY = world.getPlayer().y();
-        int sightRadius = 5; // Define the sight radius as needed
-        int numXTiles = worldFrame.length;
-        int numYTiles = worldFrame[0].length;
-        int leftside = playerX - sightRadius;
-        int rightside = playerX + sightRadius;
-        int down = playerY - sightRadius;
-        int up = playerY + sightRadius;
-        for (int x = 0; x < numXTiles; x += 1) {
-            for (int y = 0; y < numYTiles; y += 1) {
-                if (worldFrame[x][y] == null) {
-                    throw new IllegalArgumentException("Tile at position x = " + x + ", y = " + y + "is null.");
-                }
-                if (x >= leftside && x <= rightside &&
-                        y >= down && y <= up) {
-                    worldFrame[x][y].draw(x + xOffset, y + yOffset);
+        int sightRadius = sight.radius();
+        int leftside = Math.max(sight.x() - sightRadius, firstX());
+        int rightside = Math.min(sight.x() + sightRadius, lastX(grid.width()));
+        int down = Math.max(sight.y() - sightRadius, firstY());
+        int up = Math.min(sight.y() + sightRadius, lastY(grid.height()));
+        clearFrame();
+        Graphics2D g = offscreen();
+        Shape clip = clipToViewport(g);
+        for (int x = leftside; x <= rightside; x += 1) {
+            for (int y = down; y <= up; y += 1) {
+                if (sight.isVisible(x, y)) {
+                    drawTile(g, occupants.tileAt(grid, x, y), pixelX(x), pixelY(y));
                 }
             }
         }
+        restoreClip(g, clip);
+        present(g);
         StdDraw.show();
     }
 
     /**
-     * Draws all world tiles without clearing the canvas or showing the tiles.
+     * Draws grid with the entities of occupants on top, redrawing only the cells that
+     * changed since the last call. StdDraw's offscreen buffer keeps its contents between
+     * frames, so it serves as the back buffer: the first call for a grid, and the first
+     * call after anything else was drawn, clears it and draws every tile; later calls
+     * draw just the changed cells from the damage lists of grid and occupants. The bands below and above the world are cleared for the
+     * HUD every time. Like drawTiles, this does not show the buffer, so the caller can
+     * add the HUD and call StdDraw.show() once.
+     *
+     * With the FRAMEBUFFER backend the framebuffer is the back buffer instead, and it is
+     * drawn onto the canvas in full on every call, which also clears the HUD bands.
+     *
+     * A camera that moved since the last call scrolls every tile, so it counts as
+     * anything else having been drawn.
+     * @param grid the world tiles
+     * @param occupants the entities standing on grid
+     */
+    public void renderDamage(TileGrid grid, OccupancyGrid occupants) {
+        grid.trackDamage();
+        occupants.trackDamage();
+        resetFont();
+        if (stale || grid != drawn || occupants != drawnOccupants
+                || cameraPx != drawnPx || cameraPy != drawnPy) {
+            StdDraw.clear(Color.black);
+            clearFrame();
+            drawTiles(grid, occupants);
+            drawn = grid;
+            drawnOccupants = occupants;
+            drawnPx = cameraPx;
+            drawnPy = cameraPy;
+            stale = false;
+        } else {
+            Graphics2D g = offscreen();
+            Shape clip = clipToViewport(g);
+            int h = grid.height();
+            for (int k = 0; k < grid.damageCount(); k++) {
+                redrawCell(g, grid, occupants, grid.damagedCell(k));
+            }
+            for (int k = 0; k < occupants.damageCount(); k++) {
+                redrawCell(g, grid, occupants, occupants.damagedCell(k));
+            }
+            restoreClip(g, clip);
+            if (framePixels != null) {
+                present(g);
+            } else {
+                clearRows(0, yOffset);
+                clearRows(yOffset + Math.min(h, viewHeight), height);
+            }
+        }
+        grid.clearDamage();
+        occupants.clearDamage();
+    }
+
+    private void redrawCell(Graphics2D g, TileGrid grid, OccupancyGrid occupants, int i) {
+        int x = i / grid.height();
+        int y = i % grid.height();
+        if (g == null) {
+            StdDraw.setPenColor(Color.black);
+            StdDraw.filledSquare(screenX(pixelX(x)) + 0.5, screenY(pixelY(y)) + 0.5, 0.5);
+        }
+        drawTile(g, occupants.tileAt(grid, x, y), pixelX(x), pixelY(y));
+    }
+
+    /**
+     * Makes the next renderDamage call redraw every tile. Call this after drawing over
+     * the world with StdDraw directly.
+     */
+    public void invalidate() {
+        stale = true;
+    }
+
+    private void clearRows(int from, int to) {
+        if (from < to) {
+            StdDraw.setPenColor(Color.black);
+            StdDraw.filledRectangle(width / 2.0, (from + to) / 2.0, width / 2.0, (to - from) / 2.0);
+        }
+    }
+
+    /**
+     * Draws all world tiles without clearing the canvas or showing the tiles. With the
+     * FRAMEBUFFER backend only the cells of these tiles are drawn from the framebuffer
+     * onto the canvas afterwards, so the rest of the canvas, such as a HUD drawn before,
+     * is left as it was.
      * @param world the 2D TETile[][] array to render
      */
     public void drawTiles(TETile[][] world) {
-        int numXTiles = world.length;
-        int numYTiles = world[0].length;
-        for (int x = 0; x < numXTiles; x += 1) {
-            for (int y = 0; y < numYTiles; y += 1) {
+        int lastX = lastX(world.length);
+        int lastY = lastY(world[0].length);
+        Graphics2D g = offscreen();
+        Shape clip = clipToViewport(g);
+        for (int x = firstX(); x <= lastX; x += 1) {
+            for (int y = firstY(); y <= lastY; y += 1) {
                 if (world[x][y] == null) {
                     throw new IllegalArgumentException("Tile at position x=" + x + ", y=" + y
                             + " is null.");
                 }
-                world[x][y].draw(x + xOffset, y + yOffset);
+                drawTile(g, world[x][y], pixelX(x), pixelY(y));
             }
         }
+        restoreClip(g, clip);
+        present(g, firstX(), lastX, firstY(), lastY);
     }
 
+    /**
+     * Draws all tiles of grid with the entities of occupants on top, like drawTiles.
+     */
+    private void drawTiles(TileGrid grid, OccupancyGrid occupants) {
+        int lastX = lastX(grid.width());
+        int lastY = lastY(grid.height());
+        Graphics2D g = offscreen();
+        Shape clip = clipToViewport(g);
+        for (int x = firstX(); x <= lastX; x += 1) {
+            for (int y = firstY(); y <= lastY; y += 1) {
+                drawTile(g, occupants.tileAt(grid, x, y), pixelX(x), pixelY(y));
+            }
+        }
+        restoreClip(g, clip);
+        present(g, firstX(), lastX, firstY(), lastY);
+    }
+
+    /* The world tiles that are at least partly inside the viewport, clamped to a world
+     * of the given size. */
+
+    private int firstX() {
+        return Math.floorDiv(cameraPx, TILE_SIZE);
+    }
+
+    private int lastX(int worldWidth) {
+        return Math.min(Math.floorDiv(cameraPx + viewWidth * TILE_SIZE - 1, TILE_SIZE), worldWidth - 1);
+    }
+
+    private int firstY() {
+        return Math.floorDiv(cameraPy, TILE_SIZE);
+    }
+
+    private int lastY(int worldHeight) {
+        return Math.min(Math.floorDiv(cameraPy + viewHeight * TILE_SIZE - 1, TILE_SIZE), worldHeight - 1);
+    }
+
+    /* Canvas pixel of the top left corner of world tile (x, y), with y going down. */
+
+    private int pixelX(int x) {
+        return (xOffset + x) * TILE_SIZE - cameraPx;
+    }
+
+    private int pixelY(int y) {
+        return (height - 1 - yOffset - y) * TILE_SIZE + cameraPy;
+    }
+
+    /* StdDraw position, in tiles, of the bottom left corner of a tile at canvas pixel p. */
+
+    private static double screenX(int px) {
+        return px / (double) TILE_SIZE;
+    }
+
+    private double screenY(int py) {
+        return height - 1 - py / (double) TILE_SIZE;
+    }
+
+    /**
+     * Limits drawing on g to the viewport, so tiles cut by its edges do not spill into
+     * the HUD. Returns the clip to put back with restoreClip.
+     */
+    private Shape clipToViewport(Graphics2D g) {
+        if (g == null || framePixels != null) {
+            return null;
+        }
+        Shape clip = g.getClip();
+        g.clipRect(xOffset * TILE_SIZE, (height - yOffset - viewHeight) * TILE_SIZE,
+                viewWidth * TILE_SIZE, viewHeight * TILE_SIZE);
+        return clip;
+    }
+
+    private void restoreClip(Graphics2D g, Shape clip) {
+        if (g != null && framePixels == null) {
+            g.setClip(clip);
+        }
+    }
+
+    /**
+     * Draws tile with its top left corner at canvas pixel (px, py). With the FRAMEBUFFER
+     * backend its pixels are copied from the atlas into the framebuffer, cut to the
+     * viewport; a tile that does not fit in the atlas is filled with its background
+     * color. Otherwise it is copied from the atlas onto g, or drawn with TETile.draw when
+     * there is no g or the atlas is full.
+     */
+    private void drawTile(Graphics2D g, TETile tile, int px, int py) {
+        int left = xOffset * TILE_SIZE;
+        int top = (height - yOffset - viewHeight) * TILE_SIZE;
+        int right = left + viewWidth * TILE_SIZE;
+        int bottom = top + viewHeight * TILE_SIZE;
+        if (px >= right || px + TILE_SIZE <= left || py >= bottom || py + TILE_SIZE <= top) {
+            return;
+        }
+        if (atlas == null && (g != null || framePixels != null)) {
+            atlas = new TileAtlas();
+        }
+        if (framePixels != null) {
+            int stride = width * TILE_SIZE;
+            if (!atlas.copy(tile, framePixels, stride, px, py, left, top, right, bottom)) {
+                fillCell(px, py, left, top, right, bottom, tile.backgroundColor());
+            }
+            return;
+        }
+        if (g != null && atlas.draw(g, tile, px, py)) {
+            return;
+        }
+        tile.draw(screenX(px), screenY(py));
+    }
+
+    private void fillCell(int px, int py, int left, int top, int right, int bottom, Color color) {
+        int rgb = color == null ? 0 : color.getRGB();
+        int stride = width * TILE_SIZE;
+        int from = Math.max(px, left);
+        int to = Math.min(px + TILE_SIZE, right);
+        for (int row = Math.max(py, top); row < Math.min(py + TILE_SIZE, bottom); row++) {
+            Arrays.fill(framePixels, row * stride + from, row * stride + to, rgb);
+        }
+    }
+
+    /**
+     * Sets the framebuffer to black. Does nothing without the FRAMEBUFFER backend.
+     */
+    private void clearFrame() {
+        if (framePixels != null) {
+            Arrays.fill(framePixels, 0);
+        }
+    }
 
+    /**
+     * Draws the framebuffer onto the canvas with one drawImage call. Does nothing
+     * without the FRAMEBUFFER backend.
+     */
+    private void present(Graphics2D g) {
+        if (framePixels != null) {
+            g.drawImage(frameImage, 0, 0, null);
+        }
+    }
+
+    /**
+     * Draws the part of the framebuffer under world tiles [fromX, toX] x [fromY, toY],
+     * cut to the viewport, onto the canvas. Does nothing without the FRAMEBUFFER backend.
+     */
+    private void present(Graphics2D g, int fromX, int toX, int fromY, int toY) {
+        if (framePixels == null) {
+            return;
+        }
+        int left = Math.max(pixelX(fromX), xOffset * TILE_SIZE);
+        int right = Math.min(pixelX(toX) + TILE_SIZE, (xOffset + viewWidth) * TILE_SIZE);
+        int top = Math.max(pixelY(toY), (height - yOffset - viewHeight) * TILE_SIZE);
+        int bottom = Math.min(pixelY(fromY) + TILE_SIZE, (height - yOffset) * TILE_SIZE);
+        if (left < right && top < bottom) {
+            g.drawImage(frameImage, left, top, right, bottom, left, top, right, bottom, null);
+        }
+    }
+
+    private static Field offscreenField;
+    private static Field offscreenImageField;
+    private static boolean offscreenMissing;
+
+    /**
+     * Returns the Graphics2D of StdDraw's offscreen buffer, in canvas pixels with y going
+     * down, or null if StdDraw has none. StdDraw keeps it in private fields, so it is
+     * read by reflection; callers fall back to drawing through StdDraw without it.
+     *
+     * The buffer is only used if it is this window's canvas under a plain scale, as
+     * StdDraw sets it up on a HiDPI screen, so that what is drawn in canvas pixels lines
+     * up with what StdDraw draws. A buffer of another size, as after a call to
+     * StdDraw.setCanvasSize with another size, or with any other transform gives null,
+     * and the FRAMEBUFFER backend falls back to STDDRAW from then on.
+     */
+    private Graphics2D offscreen() {
+        Graphics2D g = offscreenIfAligned();
+        if (g == null && framePixels != null) {
+            backend = Backend.STDDRAW;
+            frameImage = null;
+            framePixels = null;
+        }
+        return g;
+    }
+
+    private Graphics2D offscreenIfAligned() {
+        if (offscreenMissing) {
+            return null;
+        }
+        Graphics2D g;
+        BufferedImage image;
+        try {
+            if (offscreenField == null) {
+                offscreenImageField = StdDraw.class.getDeclaredField("offscreenImage");
+                offscreenImageField.setAccessible(true);
+                offscreenField = StdDraw.class.getDeclaredField("offscreen");
+                offscreenField.setAccessible(true);
+            }
+            g = (Graphics2D) offscreenField.get(null);
+            image = (BufferedImage) offscreenImageField.get(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            offscreenMissing = true;
+            return null;
+        }
+        if (g == null || image == null) {
+            return null;
+        }
+        AffineTransform t = g.getTransform();
+        int scaleOnly = AffineTransform.TYPE_UNIFORM_SCALE | AffineTransform.TYPE_GENERAL_SCALE;
+        if ((t.getType() & ~scaleOnly) != 0
+                || image.getWidth() != Math.round(width * TILE_SIZE * t.getScaleX())
+                || image.getHeight() != Math.round(height * TILE_SIZE * t.getScaleY())) {
+            return null;
+        }
+        return g;
+    }
 
     /**
      * Resets the font to default settings. You should call this method before drawing any tiles
@@ -126,6 +126,28 @@ public class TETile {
     }
 
 
+    /**
+     * Color of the character, for TileAtlas.
+     */
+    Color textColor() {
+        return textColor;
+    }
+
+    /**
+     * Color drawn behind the character, for TileAtlas.
+     */
+    Color backgroundColor() {
+        return backgroundColor;
+    }
+
+    /**
+     * The image drawn in place of the character, or null if the tile has none or it
+     * could not be loaded. For TileAtlas.
+     */
+    BufferedImage image() {
+        return image;
+    }
+
     /** Character representation of the tile. Used for drawing in text mode.
      * @return character representation
      */
@@ -0,0 +1,155 @@
+package tileengine;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * A sprite sheet of 16 x 16 cells, each holding one tile drawn at TILE_SIZE pixels.
+ * Every tile of {@link Tileset#ALL} is drawn into the sheet once, glyph tiles with
+ * their background, character and font, image tiles from their image; other tiles
+ * are added the first time they are asked for.
+ *
+ * Drawing a tile then copies its cell, either with Graphics2D.drawImage or as raw ARGB
+ * pixels into an int[] framebuffer, so the per-tile work has no text layout and no
+ * image lookup by file name. Tiles are told apart by identity, like in TileGrid.
+ */
+public class TileAtlas {
+    public static final int TILE_SIZE = 16;
+    private static final int COLUMNS = 16;
+    private static final int CAPACITY = COLUMNS * COLUMNS;
+    private static final int SIDE = COLUMNS * TILE_SIZE;
+
+    private final BufferedImage sheet;
+    private final Graphics2D painter;
+    private final int[] pixels;   // ARGB copy of the sheet, row by row
+    private final Map<TETile, Integer> slots;
+    private int size;
+
+    public TileAtlas() {
+        sheet = new BufferedImage(SIDE, SIDE, BufferedImage.TYPE_INT_ARGB);
+        painter = sheet.createGraphics();
+        painter.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        painter.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        painter.setFont(new Font("Monaco", Font.BOLD, TILE_SIZE - 2));
+        pixels = new int[SIDE * SIDE];
+        slots = new IdentityHashMap<>();
+        size = 0;
+        for (TETile t : Tileset.ALL) {
+            slot(t);
+        }
+    }
+
+    /**
+     * Returns the cell of t in the sheet, drawing t into a new cell the first time.
+     * @param t the tile
+     * @return the cell number, or -1 if the sheet is full
+     */
+    public int slot(TETile t) {
+        Integer slot = slots.get(t);
+        if (slot != null) {
+            return slot;
+        }
+        if (size == CAPACITY) {
+            return -1;
+        }
+        int s = size++;
+        rasterise(t, cellX(s), cellY(s));
+        sheet.getRGB(cellX(s), cellY(s), TILE_SIZE, TILE_SIZE, pixels,
+                cellY(s) * SIDE + cellX(s), SIDE);
+        slots.put(t, s);
+        return s;
+    }
+
+    /**
+     * Draws t with its top left corner at pixel (px, py) of g.
+     * @return false if t has no cell and was not drawn
+     */
+    public boolean draw(Graphics2D g, TETile t, int px, int py) {
+        int s = slot(t);
+        if (s < 0) {
+            return false;
+        }
+        int sx = cellX(s);
+        int sy = cellY(s);
+        g.drawImage(sheet, px, py, px + TILE_SIZE, py + TILE_SIZE,
+                sx, sy, sx + TILE_SIZE, sy + TILE_SIZE, null);
+        return true;
+    }
+
+    /**
+     * Copies the pixels of t into an ARGB framebuffer, with the top left corner of the
+     * tile at pixel (px, py). The tile must lie inside the framebuffer.
+     * @param frame  the framebuffer, row by row
+     * @param stride the width of the framebuffer in pixels
+     * @return false if t has no cell and was not drawn
+     */
+    public boolean copy(TETile t, int[] frame, int stride, int px, int py) {
+        return copy(t, frame, stride, px, py, 0, 0, stride, frame.length / stride);
+    }
+
+    /**
+     * Same as copy(t, frame, stride, px, py), writing only the pixels of t that fall in
+     * [left, right) x [top, bottom), which must lie inside the framebuffer.
+     */
+    public boolean copy(TETile t, int[] frame, int stride, int px, int py,
+                        int left, int top, int right, int bottom) {
+        int s = slot(t);
+        if (s < 0) {
+            return false;
+        }
+        int x0 = Math.max(px, left);
+        int x1 = Math.min(px + TILE_SIZE, right);
+        int y0 = Math.max(py, top);
+        int y1 = Math.min(py + TILE_SIZE, bottom);
+        if (x0 >= x1) {
+            return true;
+        }
+        int from = (cellY(s) + y0 - py) * SIDE + cellX(s) + x0 - px;
+        int to = y0 * stride + x0;
+        for (int row = y0; row < y1; row++) {
+            System.arraycopy(pixels, from, frame, to, x1 - x0);
+            from += SIDE;
+            to += stride;
+        }
+        return true;
+    }
+
+    /**
+     * Draws t into the cell at (x, y) the way TETile.draw draws it on the canvas: an
+     * image centred in the cell on black, or the character centred on its background.
+     */
+    private void rasterise(TETile t, int x, int y) {
+        painter.setClip(x, y, TILE_SIZE, TILE_SIZE);
+        BufferedImage image = t.image();
+        if (image != null) {
+            painter.setColor(Color.black);
+            painter.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+            painter.drawImage(image, x + (TILE_SIZE - image.getWidth()) / 2,
+                    y + (TILE_SIZE - image.getHeight()) / 2, null);
+        } else {
+            painter.setColor(t.backgroundColor());
+            painter.fillRect(x, y, TILE_SIZE, TILE_SIZE);
+            painter.setColor(t.textColor());
+            String text = Character.toString(t.character());
+            FontMetrics metrics = painter.getFontMetrics();
+            float left = x + (TILE_SIZE - metrics.stringWidth(text)) / 2f;
+            float baseline = y + TILE_SIZE / 2f + metrics.getDescent();
+            painter.drawString(text, left, baseline);
+        }
+        painter.setClip(null);
+    }
+
+    private static int cellX(int slot) {
+        return slot % COLUMNS * TILE_SIZE;
+    }
+
+    private static int cellY(int slot) {
+        return slot / COLUMNS * TILE_SIZE;
+    }
+}
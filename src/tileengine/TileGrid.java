@@ -0,0 +1,274 @@
+package tileengine;
+
+import java.util.Arrays;
+
+/**
+ * A width x height grid of tiles stored as one byte per cell. Each byte is a code into
+ * a small palette of TETile objects, so comparing two cells is a byte comparison
+ * instead of a call to TETile.equals, and a grid takes an eighth of the memory of a
+ * TETile[][] of references.
+ *
+ * Cells are stored column by column at index {@code x * height + y}, the same order as
+ * a TETile[x][y] array, so loops over x and then y walk the array sequentially.
+ *
+ * Code that still works on TETile[][] (the renderer, the autograder) can ask for
+ * {@link #frame()}. The array is built on the first call and every later write goes to
+ * both the bytes and the array, so the same array stays current and is never copied
+ * again. An OccupancyGrid laid over the grid with OccupancyGrid.overlay shows its
+ * entities in the same array, on top of their cells' tiles.
+ *
+ * The palette compares tiles by identity, so two tiles with the same id but different
+ * looks get different codes.
+ *
+ * Once {@link #trackDamage()} is called, the grid also keeps a list of the cells whose
+ * tile changed since the last {@link #clearDamage()}, so a renderer can redraw just
+ * those.
+ */
+public class TileGrid {
+    static final int MAX_PALETTE = 256;
+
+    private final int width;
+    private final int height;
+    private final byte[] cells;
+    private TETile[] palette;
+    private int paletteSize;
+    private TETile[][] frame;
+    private OccupancyGrid overlay; // entities shown in frame over their cells, or null
+    private boolean[] damaged;   // null until damage tracking starts
+    private int[] damage;        // changed cells, in order of their first change
+    private int damageCount;
+
+    /**
+     * Creates a grid with every cell set to fill.
+     * @param width width of the grid in tiles
+     * @param height height of the grid in tiles
+     * @param fill the initial tile of every cell
+     */
+    public TileGrid(int width, int height, TETile fill) {
+        this.width = width;
+        this.height = height;
+        this.cells = new byte[width * height];
+        this.palette = new TETile[16];
+        this.paletteSize = 0;
+        Arrays.fill(cells, (byte) code(fill));
+    }
+
+    /**
+     * Returns a new grid with the same palette and cells as this one.
+     */
+    public TileGrid copy() {
+        return new TileGrid(this);
+    }
+
+    /**
+     * Creates a grid over cells, which it keeps rather than copies, with the codes of
+     * palette. For WorldFile.
+     */
+    TileGrid(int width, int height, TETile[] palette, byte[] cells) {
+        this.width = width;
+        this.height = height;
+        this.cells = cells;
+        this.palette = Arrays.copyOf(palette, Math.max(palette.length, 16));
+        this.paletteSize = palette.length;
+    }
+
+    private TileGrid(TileGrid other) {
+        this.width = other.width;
+        this.height = other.height;
+        this.cells = other.cells.clone();
+        this.palette = other.palette.clone();
+        this.paletteSize = other.paletteSize;
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the index of the cell (x, y).
+     */
+    public int index(int x, int y) {
+        return x * height + y;
+    }
+
+    public boolean inBounds(int x, int y) {
+        return x >= 0 && x < width && y >= 0 && y < height;
+    }
+
+    /**
+     * Returns the palette code of t, adding t to the palette if it is not there yet.
+     * @param t the tile
+     * @return the code of t
+     */
+    public int code(TETile t) {
+        for (int i = 0; i < paletteSize; i++) {
+            if (palette[i] == t) {
+                return i;
+            }
+        }
+        if (paletteSize == MAX_PALETTE) {
+            throw new IllegalStateException("A TileGrid can hold at most " + MAX_PALETTE + " tiles.");
+        }
+        if (paletteSize == palette.length) {
+            palette = Arrays.copyOf(palette, paletteSize * 2);
+        }
+        palette[paletteSize] = t;
+        return paletteSize++;
+    }
+
+    /**
+     * Returns the tile with the given palette code.
+     */
+    public TETile tile(int code) {
+        return palette[code];
+    }
+
+    /**
+     * Returns the number of tiles in the palette, which are the codes 0 to
+     * paletteSize() - 1.
+     */
+    public int paletteSize() {
+        return paletteSize;
+    }
+
+    /**
+     * Returns the bytes of the cells themselves, not a copy. For WorldFile.
+     */
+    byte[] cells() {
+        return cells;
+    }
+
+    /**
+     * Returns the palette code of the cell at index i.
+     */
+    public int codeAt(int i) {
+        return cells[i] & 0xFF;
+    }
+
+    /**
+     * Returns the palette code of the cell (x, y).
+     */
+    public int codeAt(int x, int y) {
+        return cells[x * height + y] & 0xFF;
+    }
+
+    /**
+     * Sets the cell at index i to the tile with the given palette code.
+     */
+    public void setCode(int i, int code) {
+        if (damaged != null && !damaged[i] && cells[i] != (byte) code) {
+            damaged[i] = true;
+            if (damageCount == damage.length) {
+                damage = Arrays.copyOf(damage, damageCount * 2);
+            }
+            damage[damageCount++] = i;
+        }
+        cells[i] = (byte) code;
+        if (frame != null && (overlay == null || overlay.isFree(i))) {
+            frame[i / height][i % height] = palette[code];
+        }
+    }
+
+    public TETile get(int x, int y) {
+        return palette[codeAt(x, y)];
+    }
+
+    public void set(int x, int y, TETile t) {
+        setCode(x * height + y, code(t));
+    }
+
+    /**
+     * Returns whether (x, y) lies in the grid and holds the tile with the given code.
+     */
+    public boolean is(int x, int y, int code) {
+        return inBounds(x, y) && (cells[x * height + y] & 0xFF) == code;
+    }
+
+    /**
+     * Starts recording which cells change. Does nothing if recording already started.
+     */
+    public void trackDamage() {
+        if (damaged == null) {
+            damaged = new boolean[cells.length];
+            damage = new int[16];
+            damageCount = 0;
+        }
+    }
+
+    /**
+     * Returns the number of cells that changed since the last clearDamage().
+     */
+    public int damageCount() {
+        return damageCount;
+    }
+
+    /**
+     * Returns the index of the k-th changed cell.
+     */
+    public int damagedCell(int k) {
+        return damage[k];
+    }
+
+    /**
+     * Forgets the changed cells, after they have been redrawn.
+     */
+    public void clearDamage() {
+        for (int k = 0; k < damageCount; k++) {
+            damaged[damage[k]] = false;
+        }
+        damageCount = 0;
+    }
+
+    /**
+     * Returns the grid as a TETile[x][y] array, with the entities of its overlay on top.
+     * The array is created on the first call and kept in sync with the grid and the
+     * overlay from then on.
+     * @return the live TETile[][] view of the grid
+     */
+    public TETile[][] frame() {
+        if (frame == null) {
+            frame = new TETile[width][height];
+            for (int x = 0; x < width; x++) {
+                TETile[] column = frame[x];
+                int base = x * height;
+                for (int y = 0; y < height; y++) {
+                    column[y] = shown(base + y);
+                }
+            }
+        }
+        return frame;
+    }
+
+    /**
+     * Makes frame() show the entities of overlay on top of this grid's tiles. A frame
+     * built before is redrawn in place.
+     */
+    void setOverlay(OccupancyGrid overlay) {
+        this.overlay = overlay;
+        if (frame != null) {
+            for (int i = 0; i < cells.length; i++) {
+                frame[i / height][i % height] = shown(i);
+            }
+        }
+    }
+
+    /**
+     * Brings the frame up to date at index i after the overlay changed there.
+     */
+    void overlayChanged(int i) {
+        if (frame != null) {
+            frame[i / height][i % height] = shown(i);
+        }
+    }
+
+    private TETile shown(int i) {
+        if (overlay != null && !overlay.isFree(i)) {
+            return overlay.tile(overlay.idAt(i));
+        }
+        return palette[cells[i] & 0xFF];
+    }
+}
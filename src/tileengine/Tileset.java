@@ -68,5 +68,23 @@ public class Tileset{
     public static final TETile TRAIL = new TETile(' ', Color.white, Color.black,
             "Fire Trail ", "proj3/resources/images/firetrail.png", 22);
 
+    /** Every tile above, in the order they are declared. */
+    public static final TETile[] ALL = {
+        AVATAR, WALL, ELDENWALL, OUTSKIRTS, ROCKTILE, FLOOR, NOTHING, GRASS, WATER, FLOWER,
+        LOCKED_DOOR, UNLOCKED_DOOR, SAND, MOUNTAIN, TREE, CELL, TRACK, ELDRITCH_TREE, RUNE,
+        ASHEN_SKY, SOUL_STEALER, MISTY_FOREST, TARNISHED, ENEMY, ENEMY2, TRAIL
+    };
+
+    /**
+     * Returns the index of t in ALL, or -1 if t is none of the tiles above. Files store
+     * tiles by this index rather than by id, since ids are not unique.
+     */
+    public static int indexOf(TETile t) {
+        for (int i = 0; i < ALL.length; i++) {
+            if (ALL[i] == t) {
+                return i;
+            }
+        }
+        return -1;
+    }
 }
-
@@ -0,0 +1,136 @@
+package tileengine;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A TileGrid in a binary file of fixed layout, written and read through a memory
+ * mapping of the file:
+ *
+ *   int    MAGIC, short VERSION
+ *   int    width, int height
+ *   short  palette size, at most 256, then one short per palette code: the index of
+ *          its tile in Tileset.ALL
+ *   byte   width * height cells, the palette code of cell x * height + y
+ *
+ * Opening a file maps it and reads only the header and palette. A cell is read from
+ * the mapping when asked for, so the operating system pages a map in as it is used and
+ * a library of pre-generated worlds on disk costs nothing until it is looked at;
+ * toGrid() copies all the cells at once when a TileGrid is needed.
+ */
+public class WorldFile {
+    private static final int MAGIC = 0x54494C45;   // "TILE"
+    private static final short VERSION = 1;
+
+    private final int width;
+    private final int height;
+    private final TETile[] palette;
+    private final ByteBuffer cells;   // the cells of the mapping, from the first one
+
+    private WorldFile(int width, int height, TETile[] palette, ByteBuffer cells) {
+        this.width = width;
+        this.height = height;
+        this.palette = palette;
+        this.cells = cells;
+    }
+
+    /**
+     * Writes grid to path, replacing the file if there is one.
+     * @throws IllegalArgumentException if grid holds a tile that is not in Tileset.ALL
+     */
+    public static void write(Path path, TileGrid grid) throws IOException {
+        int paletteSize = grid.paletteSize();
+        short[] tiles = new short[paletteSize];
+        for (int code = 0; code < paletteSize; code++) {
+            int index = Tileset.indexOf(grid.tile(code));
+            if (index < 0) {
+                throw new IllegalArgumentException("Tile " + grid.tile(code).description()
+                        + " is not in Tileset.ALL and cannot be saved.");
+            }
+            tiles[code] = (short) index;
+        }
+        byte[] data = grid.cells();
+        long size = headerSize(paletteSize) + data.length;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer out = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            out.putInt(MAGIC).putShort(VERSION).putInt(grid.width()).putInt(grid.height());
+            out.putShort((short) paletteSize);
+            for (short t : tiles) {
+                out.putShort(t);
+            }
+            out.put(data);
+            out.force();
+        }
+    }
+
+    /**
+     * Maps the file at path and reads its header.
+     * @throws IOException if the file cannot be read or is not a world file
+     */
+    public static WorldFile open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (in.remaining() < headerSize(0) || in.getInt() != MAGIC || in.getShort() != VERSION) {
+                throw new IOException(path + " is not a world file of this version");
+            }
+            int width = in.getInt();
+            int height = in.getInt();
+            int paletteSize = in.getShort();
+            if (width <= 0 || height <= 0 || paletteSize <= 0 || paletteSize > TileGrid.MAX_PALETTE
+                    || in.remaining() != 2L * paletteSize + (long) width * height) {
+                throw new IOException(path + " is truncated or has a bad header");
+            }
+            TETile[] palette = new TETile[paletteSize];
+            for (int code = 0; code < paletteSize; code++) {
+                int index = in.getShort();
+                if (index < 0 || index >= Tileset.ALL.length) {
+                    throw new IOException(path + " has a tile that is not in Tileset.ALL");
+                }
+                palette[code] = Tileset.ALL[index];
+            }
+            ByteBuffer cells = in.slice();
+            return new WorldFile(width, height, palette, cells);
+        }
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Returns the tile at (x, y), read from the mapping.
+     */
+    public TETile get(int x, int y) {
+        return palette[cells.get(x * height + y) & 0xFF];
+    }
+
+    /**
+     * Returns a new TileGrid with every cell of the file, copied in one bulk read.
+     * @throws IOException if a cell has a code outside the palette
+     */
+    public TileGrid toGrid() throws IOException {
+        byte[] data = new byte[width * height];
+        ByteBuffer view = cells.duplicate();
+        view.get(data);
+        for (byte b : data) {
+            if ((b & 0xFF) >= palette.length) {
+                throw new IOException("A cell has a code outside the palette.");
+            }
+        }
+        return new TileGrid(width, height, palette, data);
+    }
+
+    private static long headerSize(int paletteSize) {
+        return 4 + 2 + 4 + 4 + 2 + 2L * paletteSize;
+    }
+}
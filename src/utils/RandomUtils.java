@@ -1,6 +1,7 @@
 package utils;
 
 import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A library of static methods to generate pseudo-random numbers from
@@ -9,6 +10,11 @@ import java.util.Random;
  * other randomness related stuff you might want to do. Feel free to
  * modify this file.
  * <p>
+ * The keyed streams at the end draw from SplittableRandom generators that are
+ * derived from a seed and a key, such as the path of a node in a tree, instead
+ * of from one shared generator. Two streams with different keys do not depend
+ * on each other, so the work that uses them can run in any order.
+ * <p>
  * Adapted from https://introcs.cs.princeton.edu/java/22library/StdRandom.java.html
  */
 public class RandomUtils {
@@ -542,4 +548,112 @@ public class RandomUtils {
                     + hi + ")");
         }
     }
+
+    ///////////////////////////////////////////////////////////////////////////
+    //  KEYED STREAMS
+    ///////////////////////////////////////////////////////////////////////////
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Returns the stream with the given key under seed. The same seed and key
+     * always give the same sequence of numbers.
+     *
+     * @param seed the seed of the whole run
+     * @param key  the key of the stream
+     * @return a new generator for that stream
+     */
+    public static SplittableRandom stream(long seed, long key) {
+        return new SplittableRandom(mix64(mix64(seed) + key * GOLDEN_GAMMA));
+    }
+
+    /**
+     * Returns the key of a child of the node with the given key, for deriving
+     * keys along a path in a tree.
+     *
+     * @param key  the key of the parent
+     * @param side which child, 0 or 1
+     * @return the key of the child
+     */
+    public static long childKey(long key, int side) {
+        return mix64(key + (side + 1) * GOLDEN_GAMMA);
+    }
+
+    /**
+     * Returns one random integer uniformly in [0, n) from the given key under seed,
+     * without creating a generator. The same seed, key and n always give the same
+     * integer, so work split over threads can draw by key in any order.
+     *
+     * @param seed the seed of the whole run
+     * @param key  the key of the draw
+     * @param n    number of possible integers
+     * @return a random integer uniformly in [0, n)
+     * @throws IllegalArgumentException if {@code n <= 0}
+     */
+    public static int uniform(long seed, long key, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("argument must be positive: " + n);
+        }
+        long z = mix64(mix64(seed) + key * GOLDEN_GAMMA);
+        return (int) (((z >>> 32) * n) >>> 32);
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * Returns a random real number uniformly in [0, 1).
+     *
+     * @return a random real number uniformly in [0, 1)
+     */
+    public static double uniform(SplittableRandom random) {
+        return random.nextDouble();
+    }
+
+    /**
+     * Returns a random integer uniformly in [0, n).
+     *
+     * @param n number of possible integers
+     * @return a random integer uniformly between 0 (inclusive) and {@code n} (exclusive)
+     * @throws IllegalArgumentException if {@code n <= 0}
+     */
+    public static int uniform(SplittableRandom random, int n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("argument must be positive: " + n);
+        }
+        return random.nextInt(n);
+    }
+
+    /**
+     * Returns a random long integer uniformly in [0, n).
+     *
+     * @param n number of possible {@code long} integers
+     * @return a random long integer uniformly between 0 (inclusive) and {@code n} (exclusive)
+     * @throws IllegalArgumentException if {@code n <= 0}
+     */
+    public static long uniform(SplittableRandom random, long n) {
+        if (n <= 0L) {
+            throw new IllegalArgumentException("argument must be positive: " + n);
+        }
+        return random.nextLong(n);
+    }
+
+    /**
+     * Returns a random integer uniformly in [a, b).
+     *
+     * @param a the left endpoint
+     * @param b the right endpoint
+     * @return a random integer uniformly in [a, b)
+     * @throws IllegalArgumentException if {@code b <= a}
+     * @throws IllegalArgumentException if {@code b - a >= Integer.MAX_VALUE}
+     */
+    public static int uniform(SplittableRandom random, int a, int b) {
+        if ((b <= a) || ((long) b - a >= Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("invalid range: [" + a + ", " + b + ")");
+        }
+        return a + uniform(random, b - a);
+    }
 }